@@ -1,6 +1,7 @@
 plugins {
     java
     id("application")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "org.marsofandrew"
@@ -20,6 +21,9 @@ dependencies {
     implementation("io.netty:netty-all:4.1.77.Final")
     implementation("log4j:log4j:1.2.17")
     implementation("org.slf4j:slf4j-api:1.7.36")
+    runtimeOnly("org.slf4j:slf4j-reload4j:1.7.36") {
+        exclude(group = "ch.qos.reload4j")
+    }
 
     testImplementation("org.slf4j:slf4j-api:1.7.36")
     testImplementation("org.junit.jupiter:junit-jupiter-api:5.8.1")
@@ -30,8 +34,26 @@ dependencies {
     annotationProcessor(lombok)
     testCompileOnly(lombok)
     testAnnotationProcessor(lombok)
+    jmhCompileOnly(lombok)
+    jmhAnnotationProcessor(lombok)
 }
 
 tasks.getByName<Test>("test") {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
+
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the load generator against an in-process TelnetServer, pass options with -PloadArgs"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.marsofandrew.chat.load.LoadGenerator")
+    args = (project.findProperty("loadArgs") as String?)?.split(" ") ?: emptyList()
+}
@@ -0,0 +1,120 @@
+package org.marsofandrew.chat.core;
+
+import org.marsofandrew.chat.core.model.Subscriber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of {@link TopicService.Topic#publish(String, Object)} and history replay of
+ * {@link TopicService.Topic#registerSubscriber(Subscriber)}. Subscribers handle messages on a dedicated executor,
+ * so the numbers include the handoff to every subscriber mailbox.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TopicServiceBenchmark {
+
+    private static final String TOPIC = "benchmark";
+    private static final String SENDER = "sender";
+    private static final String MESSAGE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit";
+
+    @State(Scope.Thread)
+    public static class FanOut {
+
+        @Param({"1", "10", "100", "1000"})
+        private int subscribers;
+
+        private TopicService<String> topicService;
+        private TopicService.Topic<String> topic;
+        private ExecutorService executor;
+
+        @Setup
+        public void setUp(Blackhole blackhole) {
+            executor = Executors.newSingleThreadExecutor();
+            topicService = new TopicService<>(100, subscribers, subscribers);
+            topic = topicService.getTopic(TOPIC);
+            for (int i = 0; i < subscribers; i++) {
+                topic.registerSubscriber(new NoOpSubscriber(blackhole, executor)).join();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            topicService.close();
+            shutdown(executor);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Replay {
+
+        @Param({"10", "100", "1000"})
+        private int messageLimit;
+
+        private TopicService<String> topicService;
+        private TopicService.Topic<String> topic;
+        private ExecutorService executor;
+        private NoOpSubscriber subscriber;
+
+        @Setup
+        public void setUp(Blackhole blackhole) {
+            executor = Executors.newSingleThreadExecutor();
+            topicService = new TopicService<>(messageLimit, 1, 1);
+            topic = topicService.getTopic(TOPIC);
+            for (int i = 0; i < messageLimit; i++) {
+                topic.publish(SENDER, MESSAGE);
+            }
+            subscriber = new NoOpSubscriber(blackhole, executor);
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            topicService.close();
+            shutdown(executor);
+        }
+    }
+
+    @Benchmark
+    public void publish(FanOut state) {
+        state.topic.publish(SENDER, MESSAGE);
+    }
+
+    @Benchmark
+    public void registerSubscriber(Replay state) {
+        state.topic.registerSubscriber(state.subscriber).join();
+        state.topic.unregisterSubscriber(state.subscriber).join();
+    }
+
+    private static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+
+    private record NoOpSubscriber(Blackhole blackhole, Executor executor) implements Subscriber<String> {
+
+        @Override
+        public void handleMessage(String topic, String sender, String message, Instant instant) {
+            blackhole.consume(message);
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return executor;
+        }
+    }
+}
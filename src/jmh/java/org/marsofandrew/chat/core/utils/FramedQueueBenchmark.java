@@ -0,0 +1,49 @@
+package org.marsofandrew.chat.core.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding to a full history: {@link FramedQueue} evicts on every add, {@link RingBufferHistory} overwrites a slot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FramedQueueBenchmark {
+
+    private static final Integer ELEMENT = 42;
+
+    @Param({"10", "100", "1000", "10000"})
+    private int messageLimit;
+
+    private FramedQueue<Integer> framedQueue;
+    private RingBufferHistory<Integer> ringBuffer;
+
+    @Setup
+    public void setUp() {
+        framedQueue = new FramedQueue<>(messageLimit);
+        ringBuffer = new RingBufferHistory<>(messageLimit);
+        for (int i = 0; i < messageLimit; i++) {
+            framedQueue.add(ELEMENT);
+            ringBuffer.add(ELEMENT);
+        }
+    }
+
+    @Benchmark
+    public boolean framedQueueAdd() {
+        return framedQueue.add(ELEMENT);
+    }
+
+    @Benchmark
+    public long ringBufferAdd() {
+        return ringBuffer.add(ELEMENT);
+    }
+}
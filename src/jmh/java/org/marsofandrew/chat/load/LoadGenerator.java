@@ -0,0 +1,242 @@
+package org.marsofandrew.chat.load;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.Delimiters;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.ui.ServerConfig;
+import org.marsofandrew.chat.ui.TelnetServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Starts {@link TelnetServer} on localhost and drives it with many telnet sessions.
+ * Every session logs in and joins a topic picked by the configured distribution, then sessions publish
+ * at the target rate. Published lines carry the send time, so every delivered line gives one latency sample.
+ * <p>
+ * Arguments are {@code --name=value} pairs: connections, topics, distribution (uniform or zipf),
+ * zipfExponent, rate (messages per second), warmup and duration (seconds), messageLimit.
+ */
+@Slf4j
+public class LoadGenerator {
+
+    private static final String MARKER = "LOAD ";
+
+    private final int connections;
+    private final int topics;
+    private final String distribution;
+    private final double zipfExponent;
+    private final int rate;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int messageLimit;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private volatile long windowStart = Long.MAX_VALUE;
+    private volatile long windowEnd = Long.MAX_VALUE;
+
+    public LoadGenerator(Map<String, String> args) {
+        this.connections = Integer.parseInt(args.getOrDefault("connections", "1000"));
+        this.topics = Integer.parseInt(args.getOrDefault("topics", "10"));
+        this.distribution = args.getOrDefault("distribution", "uniform");
+        this.zipfExponent = Double.parseDouble(args.getOrDefault("zipfExponent", "1.0"));
+        this.rate = Integer.parseInt(args.getOrDefault("rate", "10000"));
+        this.warmupSeconds = Integer.parseInt(args.getOrDefault("warmup", "5"));
+        this.durationSeconds = Integer.parseInt(args.getOrDefault("duration", "30"));
+        this.messageLimit = Integer.parseInt(args.getOrDefault("messageLimit", "100"));
+    }
+
+    public void run() throws Exception {
+        int port = freePort();
+        startServer(port);
+
+        EventLoopGroup group = new NioEventLoopGroup();
+        ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor();
+        try {
+            int[] topicOf = assignTopics();
+            int[] topicSubscribers = new int[topics];
+            List<Channel> sessions = new ArrayList<>(connections);
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new DelimiterBasedFrameDecoder(8192, Delimiters.lineDelimiter()),
+                                    new StringDecoder(),
+                                    new StringEncoder(),
+                                    new LatencyHandler());
+                        }
+                    });
+            for (int i = 0; i < connections; i++) {
+                Channel channel = bootstrap.connect(new InetSocketAddress("127.0.0.1", port)).sync().channel();
+                channel.write(String.format("/login load-%s password\r\n", i));
+                channel.writeAndFlush(String.format("/join topic-%s\r\n", topicOf[i]));
+                topicSubscribers[topicOf[i]]++;
+                sessions.add(channel);
+            }
+            log.info("{} sessions connected", connections);
+            TimeUnit.SECONDS.sleep(1);
+
+            int perTick = Math.max(1, rate / 1000);
+            long tickMicros = Math.max(1, 1_000_000L * perTick / rate);
+            Random random = new Random(42);
+            publisher.scheduleAtFixedRate(() -> {
+                for (int i = 0; i < perTick; i++) {
+                    int session = random.nextInt(connections);
+                    long now = System.nanoTime();
+                    sessions.get(session).writeAndFlush(MARKER + now + "\r\n");
+                    if (now >= windowStart && now < windowEnd) {
+                        sent.increment();
+                        expected.add(topicSubscribers[topicOf[session]]);
+                    }
+                }
+            }, 0, tickMicros, TimeUnit.MICROSECONDS);
+
+            TimeUnit.SECONDS.sleep(warmupSeconds);
+            windowStart = System.nanoTime();
+            TimeUnit.SECONDS.sleep(durationSeconds);
+            windowEnd = System.nanoTime();
+            publisher.shutdown();
+            TimeUnit.SECONDS.sleep(warmupSeconds);
+            report(windowEnd - windowStart);
+        } finally {
+            publisher.shutdownNow();
+            group.shutdownGracefully().sync();
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("connections=%d topics=%d distribution=%s rate=%d/s duration=%.1fs%n",
+                connections, topics, distribution, rate, seconds);
+        System.out.printf("published: %d (%.0f msg/s)%n", sent.sum(), sent.sum() / seconds);
+        System.out.printf("delivered: %d of %d expected (%.0f msg/s)%n",
+                delivered.sum(), expected.sum(), delivered.sum() / seconds);
+        System.out.printf("latency us: p50=%.1f p99=%.1f p999=%.1f max=%.1f%n",
+                histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3,
+                histogram.percentile(99.9) / 1e3, histogram.percentile(100) / 1e3);
+    }
+
+    private int[] assignTopics() {
+        double[] cumulative = new double[topics];
+        double total = 0;
+        for (int i = 0; i < topics; i++) {
+            total += "zipf".equals(distribution) ? 1 / Math.pow(i + 1, zipfExponent) : 1;
+            cumulative[i] = total;
+        }
+        Random random = new Random(7);
+        int[] topicOf = new int[connections];
+        for (int i = 0; i < connections; i++) {
+            double point = random.nextDouble() * total;
+            int topic = 0;
+            while (topic < topics - 1 && cumulative[topic] < point) {
+                topic++;
+            }
+            topicOf[i] = topic;
+        }
+        return topicOf;
+    }
+
+    private void startServer(int port) throws InterruptedException {
+        var server = new TelnetServer(ServerConfig.builder()
+                .port(port)
+                .messageLimit(messageLimit)
+                .clientsPerChannelLimit(connections)
+                .build());
+        Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (Exception e) {
+                log.error("Server failed", e);
+            }
+        }, "telnet-server");
+        thread.setDaemon(true);
+        thread.start();
+        while (true) {
+            if (canConnect(port)) {
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+    }
+
+    private static boolean canConnect(int port) {
+        Socket probe = new Socket();
+        try {
+            probe.connect(new InetSocketAddress("127.0.0.1", port));
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                probe.close();
+            } catch (IOException e) {
+                log.debug("Couldn't close probe socket", e);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private class LatencyHandler extends SimpleChannelInboundHandler<String> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, String msg) {
+            int marker = msg.lastIndexOf(MARKER);
+            if (marker < 0) {
+                return;
+            }
+            long sentAt = Long.parseLong(msg, marker + MARKER.length(), msg.length(), 10);
+            if (sentAt < windowStart || sentAt >= windowEnd) {
+                return;
+            }
+            histogram.record(System.nanoTime() - sentAt);
+            delivered.increment();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> parsed = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Arguments should be in --name=value format");
+                System.exit(1);
+            }
+            parsed.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadGenerator(parsed).run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,74 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.Delimiters;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.ReferenceCountUtil;
+import org.marsofandrew.chat.core.TopicService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single chat line going through the telnet pipeline: frame and command decoding, {@link TelnetServerHandler#channelRead0},
+ * publishing and writing the line back to the same joined client.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TelnetServerHandlerBenchmark {
+
+    private static final ByteBuf LINE = Unpooled.unreleasableBuffer(Unpooled.directBuffer()
+            .writeBytes("Lorem ipsum dolor sit amet, consectetur adipiscing elit\r\n".getBytes(StandardCharsets.UTF_8)));
+
+    private EmbeddedChannel channel;
+
+    @Setup
+    public void setUp() {
+        var topicService = new TopicService<String>(100, 10, 10);
+        channel = new EmbeddedChannel(
+                new DelimiterBasedFrameDecoder(8192, Delimiters.lineDelimiter()),
+                new CommandDecoder(),
+                new StringEncoder(),
+                new TelnetServerHandler(topicService));
+        writeLine(String.format("/login %s password", UUID.randomUUID()));
+        writeLine("/join benchmark");
+        drainOutbound();
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void chatLine() {
+        channel.writeInbound(LINE.duplicate());
+        channel.runPendingTasks();
+        drainOutbound();
+    }
+
+    private void writeLine(String line) {
+        channel.writeInbound(Unpooled.copiedBuffer(line + "\r\n", StandardCharsets.UTF_8));
+        channel.runPendingTasks();
+    }
+
+    private void drainOutbound() {
+        Object outbound;
+        while ((outbound = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(outbound);
+        }
+    }
+}
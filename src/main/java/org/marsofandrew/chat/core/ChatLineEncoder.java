@@ -0,0 +1,85 @@
+package org.marsofandrew.chat.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Renders "FROM {sender} at {time}: {message}" lines into pooled direct buffers.
+ * With sequence prefix lines are "#{sequence} FROM ...", so clients know what to pass to {@code /resume};
+ * the prefix is omitted for messages without sequence.
+ * Formatted time is cached per second, because most messages of a busy topic share it.
+ */
+public final class ChatLineEncoder implements MessageEncoder<String> {
+
+    /**
+     * Renders lines in the original telnet format without sequences.
+     */
+    public static final ChatLineEncoder INSTANCE = new ChatLineEncoder(PooledByteBufAllocator.DEFAULT, false);
+    public static final ChatLineEncoder SEQUENCED = new ChatLineEncoder(PooledByteBufAllocator.DEFAULT, true);
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    private static final byte SEQUENCE = '#';
+    private static final byte[] FROM = " FROM ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AT = " at ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEPARATOR = ": ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte NEW_LINE = '\n';
+
+    private final ByteBufAllocator allocator;
+    private final boolean sequencePrefix;
+    private volatile FormattedSecond lastSecond = new FormattedSecond(Long.MIN_VALUE, new byte[0]);
+
+    public ChatLineEncoder(ByteBufAllocator allocator, boolean sequencePrefix) {
+        this.allocator = allocator;
+        this.sequencePrefix = sequencePrefix;
+    }
+
+    @Override
+    public ByteBuf encode(String topic, Message<String> message) {
+        byte[] time = format(message.timestamp());
+        String sender = message.sender();
+        String text = message.message();
+        String sequence = !sequencePrefix || message.sequence() == Message.NO_SEQUENCE ? ""
+                : Long.toString(message.sequence());
+        int size = 1 + sequence.length() + FROM.length + ByteBufUtil.utf8Bytes(sender) + AT.length + time.length
+                + SEPARATOR.length + ByteBufUtil.utf8Bytes(text) + 1;
+        ByteBuf buf = allocator.directBuffer(size);
+        if (sequence.isEmpty()) {
+            buf.writeBytes(FROM, 1, FROM.length - 1);
+        } else {
+            buf.writeByte(SEQUENCE);
+            ByteBufUtil.writeAscii(buf, sequence);
+            buf.writeBytes(FROM);
+        }
+        ByteBufUtil.writeUtf8(buf, sender);
+        buf.writeBytes(AT);
+        buf.writeBytes(time);
+        buf.writeBytes(SEPARATOR);
+        ByteBufUtil.writeUtf8(buf, text);
+        buf.writeByte(NEW_LINE);
+        return buf;
+    }
+
+    private byte[] format(Instant instant) {
+        long second = instant.getEpochSecond();
+        FormattedSecond cached = lastSecond;
+        if (cached.second() != second) {
+            cached = new FormattedSecond(second,
+                    DATE_TIME_FORMATTER.format(instant).getBytes(StandardCharsets.US_ASCII));
+            lastSecond = cached;
+        }
+        return cached.formatted();
+    }
+
+    private record FormattedSecond(long second, byte[] formatted) {
+    }
+}
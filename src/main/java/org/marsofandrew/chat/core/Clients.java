@@ -1,56 +1,190 @@
 package org.marsofandrew.chat.core;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.marsofandrew.chat.core.exception.ClientNotJoinedToChannelException;
 import org.marsofandrew.chat.core.exception.InvalidPasswordException;
+import org.marsofandrew.chat.core.exception.RateLimitExceededException;
+import org.marsofandrew.chat.core.exception.TopicClosedException;
+import org.marsofandrew.chat.core.logging.LogRateLimiter;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.MessageEncoder;
 import org.marsofandrew.chat.core.model.Publisher;
 import org.marsofandrew.chat.core.model.Subscriber;
+import org.marsofandrew.chat.core.utils.PasswordHash;
+import org.marsofandrew.chat.core.utils.TokenBucket;
 
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 public final class Clients {
 
     private static final ConcurrentHashMap<String, Client> CLIENTS = new ConcurrentHashMap<>();
+    private static final LongAdder EVICTED = new LongAdder();
+    private static final LogRateLimiter DEAD_CHANNEL_LOG = new LogRateLimiter(1, TimeUnit.SECONDS);
+    private static final int LOGIN_QUEUE_CAPACITY = 1024;
+    private static final ExecutorService LOGIN_EXECUTOR = newLoginExecutor();
 
+    /**
+     * Verifies the password on {@code executor}, so slow hashing doesn't block the caller.
+     *
+     * @return future completed with the client or failed with {@link InvalidPasswordException}.
+     * @throws java.util.concurrent.RejectedExecutionException if the executor is saturated.
+     */
+    public static CompletableFuture<Client> login(@NonNull TopicService<String> topicService, @NonNull String username,
+                                                  @NonNull String password, @NonNull Executor executor) {
+        return CompletableFuture.supplyAsync(() -> login(topicService, username, password), executor);
+    }
+
+    /**
+     * @return shared bounded executor for password hashing, its threads are daemons.
+     */
+    public static Executor loginExecutor() {
+        return LOGIN_EXECUTOR;
+    }
+
+    private static ExecutorService newLoginExecutor() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        var counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(LOGIN_QUEUE_CAPACITY), task -> {
+            Thread thread = new Thread(task, "login-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers the client on the first login, only a salted hash of the password is kept.
+     */
     public static Client login(@NonNull TopicService<String> topicService, @NonNull String username, @NonNull String password) {
-        var client = CLIENTS.computeIfAbsent(username, ign -> new Client(topicService, username, password));
-        if (!client.password.equals(password)) {
+        // hashing is slow, so it isn't done under the map lock
+        var hash = CLIENTS.containsKey(username) ? null : PasswordHash.of(password);
+        var client = CLIENTS.compute(username, (ign, existing) -> {
+            var result = existing != null ? existing
+                    : new Client(topicService, username, hash != null ? hash : PasswordHash.of(password));
+            result.lastActiveMillis = System.currentTimeMillis();
+            return result;
+        });
+        if (client.password != hash && !client.password.matches(password)) {
             throw new InvalidPasswordException();
         }
         return client;
     }
 
+    /**
+     * @return number of clients with an active channel.
+     */
+    public static long connectedCount() {
+        return CLIENTS.values().stream()
+                .filter(client -> client.channel != null && client.channel.isActive())
+                .count();
+    }
+
+    /**
+     * @return encoded password hashes of registered clients by their names.
+     */
+    public static Map<String, String> credentials() {
+        Map<String, String> result = new HashMap<>();
+        CLIENTS.forEach((user, client) -> result.put(user, client.password.encode()));
+        return result;
+    }
+
+    /**
+     * Registers client known before restart unless it has already logged in.
+     *
+     * @param password encoded password hash, plain password saved by older versions is hashed.
+     */
+    public static void restore(@NonNull TopicService<String> topicService, @NonNull String username,
+                               @NonNull String password) {
+        var hash = PasswordHash.isEncoded(password) ? PasswordHash.decode(password) : PasswordHash.of(password);
+        CLIENTS.computeIfAbsent(username, ign -> new Client(topicService, username, hash));
+    }
+
+    public static long registeredCount() {
+        return CLIENTS.size();
+    }
+
+    /**
+     * Forgets clients which have no active channel for longer than {@code idleMillis}.
+     */
+    public static void evictIdle(long idleMillis) {
+        long idleSince = System.currentTimeMillis() - idleMillis;
+        for (String user : CLIENTS.keySet()) {
+            CLIENTS.computeIfPresent(user, (ign, client) -> {
+                if (!client.isIdleSince(idleSince)) {
+                    return client;
+                }
+                EVICTED.increment();
+                return null;
+            });
+        }
+    }
+
+    public static long evictedCount() {
+        return EVICTED.sum();
+    }
+
     /**
      * Class to represent single client
      */
-    @RequiredArgsConstructor
     public static class Client implements Subscriber<String>, Publisher<String> {
 
-        private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
-                .withZone(ZoneId.systemDefault());
-        private static final String RESPONSE_FORMAT = "FROM %s at %s: %s\n";
-
         private final TopicService<String> topicService;
         private final String user;
-        private final String password;
-        private Channel channel;
+        private final PasswordHash password;
+        private final TokenBucket rateLimiter;
+        private final List<Runnable> writabilityListeners = new CopyOnWriteArrayList<>();
+        private volatile Channel channel;
+        private volatile MessageEncoder<String> encoder = ChatLineEncoder.INSTANCE;
+        private volatile long lastActiveMillis = System.currentTimeMillis();
         private TopicService.Topic<String> currentTopic;
 
+        public Client(TopicService<String> topicService, String user, String password) {
+            this(topicService, user, PasswordHash.of(password));
+        }
+
+        private Client(TopicService<String> topicService, String user, PasswordHash password) {
+            this.topicService = topicService;
+            this.user = user;
+            this.password = password;
+            this.rateLimiter = topicService.getSettings().getClientRateLimit().newBucket();
+        }
+
+        /**
+         * @throws RateLimitExceededException if the client or its topic publishes too fast or the owner of the topic
+         * isn't reachable, the message is dropped.
+         */
         @Override
         public void sendMessage(String message) {
             if (currentTopic == null) {
                 throw new ClientNotJoinedToChannelException();
             }
-            currentTopic.publish(user, message);
+            if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+                topicService.getDispatcher().onThrottle();
+                throw new RateLimitExceededException("client rate limit exceeded");
+            }
+            var topic = currentTopic;
+            if (!topic.publish(user, message)) {
+                throw new RateLimitExceededException(topic.isReplica()
+                        ? "topic rate limit exceeded or topic owner is unreachable" : "topic rate limit exceeded");
+            }
         }
 
         @Override
@@ -60,12 +194,107 @@ public final class Clients {
 
         @Override
         public void handleMessage(String topic, String sender, String message, Instant instant) {
-            if (channel == null || !channel.isActive()) {
-                log.error("[{}] Couldn't handle message", user);
+            handleMessage(topic, new Message<>(instant, message, sender));
+        }
+
+        @Override
+        public void handleMessage(String topic, Message<String> message) {
+            var current = channel;
+            if (current == null || !current.isActive()) {
+                logDeadChannel();
                 return;
             }
-            channel.writeAndFlush(String.format(RESPONSE_FORMAT, sender, DATE_TIME_FORMATTER.format(instant),
-                    message));
+            current.write(getEncoder().encode(topic, message));
+        }
+
+        @Override
+        public void handleEncoded(String topic, Message<String> message, ByteBuf encoded) {
+            var current = channel;
+            if (current == null || !current.isActive()) {
+                encoded.release();
+                logDeadChannel();
+                return;
+            }
+            current.write(encoded);
+        }
+
+        @Override
+        public void handleGap(String topic, long fromSequence, long toSequence) {
+            var current = channel;
+            if (current == null || !current.isActive()) {
+                return;
+            }
+            current.write(String.format("GAP %s %d %d\n", topic, fromSequence, toSequence));
+        }
+
+        @Override
+        public void flush() {
+            var current = channel;
+            if (current != null) {
+                current.flush();
+            }
+        }
+
+        private void logDeadChannel() {
+            if (DEAD_CHANNEL_LOG.tryAcquire()) {
+                log.warn("[{}] Couldn't handle message, channel is closed, {} similar messages suppressed",
+                        user, DEAD_CHANNEL_LOG.drainSuppressed());
+            }
+        }
+
+        @Override
+        public MessageEncoder<String> getEncoder() {
+            return encoder;
+        }
+
+        @Override
+        public boolean isWritable() {
+            var current = channel;
+            return current != null && current.isWritable();
+        }
+
+        @Override
+        public void addWritabilityListener(Runnable listener) {
+            writabilityListeners.add(listener);
+        }
+
+        @Override
+        public void removeWritabilityListener(Runnable listener) {
+            writabilityListeners.remove(listener);
+        }
+
+        @Override
+        public void disconnect() {
+            var current = channel;
+            if (current != null) {
+                current.close();
+            }
+        }
+
+        public void writabilityChanged() {
+            if (isWritable()) {
+                writabilityListeners.forEach(Runnable::run);
+            }
+        }
+
+        /**
+         * Leaves current topic if {@code closed} is the channel of this client.
+         */
+        public void channelClosed(@NonNull Channel closed) {
+            if (closed != channel) {
+                return;
+            }
+            lastActiveMillis = System.currentTimeMillis();
+            if (currentTopic != null) {
+                currentTopic.unregisterClient(this, this);
+                currentTopic = null;
+            }
+        }
+
+        @Override
+        public Executor getExecutor() {
+            var current = channel;
+            return current != null ? current.eventLoop() : Subscriber.super.getExecutor();
         }
 
         public void joinChannel(String topic) {
@@ -74,26 +303,98 @@ public final class Clients {
             }
             if (currentTopic != null) {
                 currentTopic.unregisterClient(this, this);
+                currentTopic = null;
             }
 
             var topicChannel = topicService.getTopic(topic);
-            topicChannel.registerClient(this, this);
+            topicChannel.registerClient(this, this)
+                    .exceptionally(cause -> joinFailed(topicChannel, cause, () -> joinChannel(topic)));
             currentTopic = topicChannel;
         }
 
-        public List<String> getUsers() {
+        /**
+         * Joins the topic receiving only messages published after {@code lastSequence}.
+         */
+        public void resumeChannel(String topic, long lastSequence) {
+            if (currentTopic != null) {
+                currentTopic.unregisterClient(this, this);
+                currentTopic = null;
+            }
+
+            var topicChannel = topicService.getTopic(topic);
+            topicChannel.registerClient(this, this, lastSequence + 1)
+                    .exceptionally(cause -> joinFailed(topicChannel, cause, () -> resumeChannel(topic, lastSequence)));
+            currentTopic = topicChannel;
+        }
+
+        /**
+         * Join of a topic which was evicted meanwhile is retried on the channel event loop.
+         */
+        private Void joinFailed(TopicService.Topic<String> failed, Throwable cause, Runnable retry) {
+            var current = channel;
+            if (current == null) {
+                return null;
+            }
+            if (cause instanceof TopicClosedException) {
+                current.eventLoop().execute(() -> {
+                    if (currentTopic == failed) {
+                        currentTopic = null;
+                        retry.run();
+                    }
+                });
+            } else {
+                current.pipeline().fireExceptionCaught(cause);
+            }
+            return null;
+        }
+
+        private boolean isIdleSince(long millis) {
+            var current = channel;
+            return (current == null || !current.isActive()) && lastActiveMillis <= millis;
+        }
+
+        public CompletableFuture<List<String>> getUsers() {
             if (currentTopic == null) {
                 throw new ClientNotJoinedToChannelException();
             }
             return currentTopic.getPublisherIds();
         }
 
+        /**
+         * Writes newest messages of the current topic containing {@code term} like replayed history.
+         * Messages are written and flushed on {@link #getExecutor()}, the future completes there afterwards.
+         *
+         * @return number of found messages.
+         */
+        public CompletableFuture<Integer> search(String term, int limit) {
+            var topic = currentTopic;
+            if (topic == null) {
+                throw new ClientNotJoinedToChannelException();
+            }
+            return topic.search(term, limit).thenApplyAsync(found -> {
+                found.forEach(message -> handleMessage(topic.getTopic(), message));
+                flush();
+                return found.size();
+            }, getExecutor());
+        }
+
         public void leave() {
-            channel.flush().close();
+            var current = channel;
+            channelClosed(current);
+            current.flush().close();
         }
 
         public Client setChannel(@NonNull Channel channel) {
+            return setChannel(channel, ChatLineEncoder.INSTANCE);
+        }
+
+        /**
+         * @param encoder renders messages in the protocol of {@code channel}, gaps and replies are still written as
+         *                strings, so the channel pipeline has to encode them.
+         */
+        public Client setChannel(@NonNull Channel channel, @NonNull MessageEncoder<String> encoder) {
             this.channel = channel;
+            this.encoder = encoder;
             return this;
         }
 
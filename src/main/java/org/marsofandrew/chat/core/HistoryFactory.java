@@ -0,0 +1,43 @@
+package org.marsofandrew.chat.core;
+
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.utils.BudgetedHistory;
+import org.marsofandrew.chat.core.utils.History;
+import org.marsofandrew.chat.core.utils.HistoryBudget;
+import org.marsofandrew.chat.core.utils.RingBufferHistory;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Creates history storage for topics.
+ *
+ * @param <M> Message type.
+ */
+@FunctionalInterface
+public interface HistoryFactory<M> {
+
+    History<Message<M>> create(String topic, int messageLimit);
+
+    /**
+     * @return topics which already have a history, e.g. written before restart.
+     */
+    default Collection<String> existingTopics() {
+        return List.of();
+    }
+
+    /**
+     * @return factory of in-heap ring buffers keeping {@code messageLimit} last messages.
+     */
+    static <M> HistoryFactory<M> inMemory() {
+        return (topic, messageLimit) -> new RingBufferHistory<>(messageLimit, Message::estimatedSize, ign -> {
+        });
+    }
+
+    /**
+     * @return factory of in-heap histories keeping {@code messageLimit} last messages which all share {@code budget}.
+     */
+    static <M> HistoryFactory<M> budgeted(HistoryBudget budget) {
+        return (topic, messageLimit) -> new BudgetedHistory<>(messageLimit, budget, Message::estimatedSize);
+    }
+}
@@ -0,0 +1,45 @@
+package org.marsofandrew.chat.core;
+
+/**
+ * Decides which node of a cluster owns a topic. Topic owned by another node is a replica:
+ * messages published to it are sent to the owner by {@link Upstream}, and messages sequenced by the owner
+ * come back through {@link TopicService.Topic#deliver} with their sequences.
+ *
+ * @param <M> Message type.
+ */
+public interface TopicRouter<M> {
+
+    static <M> TopicRouter<M> local() {
+        return topic -> null;
+    }
+
+    /**
+     * Called once when the topic is created.
+     *
+     * @return link to the owner of the topic, {@code null} if the topic is owned by this node.
+     */
+    Upstream<M> upstreamOf(String topic);
+
+    /**
+     * Link of a replica topic to the node owning it.
+     */
+    interface Upstream<M> {
+
+        /**
+         * Starts delivering messages of the owner to {@code replica}.
+         */
+        void open(TopicService.Topic<M> replica);
+
+        /**
+         * Sends message published by a local client to the owner.
+         *
+         * @return {@code false} if the owner isn't reachable, the message is dropped then.
+         */
+        boolean publish(String sender, M message);
+
+        /**
+         * Stops delivery, called when the replica is evicted or closed.
+         */
+        void close();
+    }
+}
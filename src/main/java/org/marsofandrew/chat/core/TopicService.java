@@ -2,19 +2,41 @@ package org.marsofandrew.chat.core;
 
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
 import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.core.dispatch.Broadcast;
+import org.marsofandrew.chat.core.dispatch.Dispatcher;
+import org.marsofandrew.chat.core.dispatch.Mailbox;
+import org.marsofandrew.chat.core.exception.TopicClosedException;
+import org.marsofandrew.chat.core.metrics.MetricsRegistry;
+import org.marsofandrew.chat.core.metrics.TopicMetrics;
 import org.marsofandrew.chat.core.model.Message;
 import org.marsofandrew.chat.core.model.Publisher;
 import org.marsofandrew.chat.core.model.Subscriber;
-import org.marsofandrew.chat.core.utils.FramedQueue;
-import org.marsofandrew.chat.core.utils.LimitedLinkedList;
+import org.marsofandrew.chat.core.utils.BoundedMembership;
+import org.marsofandrew.chat.core.utils.History;
+import org.marsofandrew.chat.core.utils.InvertedIndex;
+import org.marsofandrew.chat.core.utils.SerialExecutor;
+import org.marsofandrew.chat.core.utils.TokenBucket;
+import org.marsofandrew.chat.core.utils.exception.OversizeException;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.StreamSupport;
 
 /**
  * Service to handle different topics
@@ -22,79 +44,679 @@ import java.util.concurrent.ConcurrentHashMap;
  * @param <M> Message type.
  */
 @Slf4j
-@RequiredArgsConstructor
 public final class TopicService<M> {
 
     private final static int QUEUE_K = 3;
+    private static final int HANDOFF_QUEUE_CAPACITY = 1024;
     private final Map<String, Topic<M>> topics = new ConcurrentHashMap<>();
+    // topics created or being created and not evicted, bounded by the topics limit
+    private final AtomicInteger topicCount = new AtomicInteger();
+    // topics being created, completed once the topic is published or its creation failed
+    private final Map<String, CompletableFuture<Void>> creations = new ConcurrentHashMap<>();
 
-    private final int messageLimit;
-    private final int publishersLimit;
-    private final int subscribersLimit;
+    @Getter
+    private final TopicSettings settings;
+    private final HistoryFactory<M> historyFactory;
+    private final TopicRouter<M> router;
+    @Getter
+    private final Dispatcher dispatcher;
+    @Getter
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final EventExecutorGroup shards;
+    private final EventExecutor[] shardExecutors;
+    // runs the rest of long batches of unsharded topics
+    private final ThreadPoolExecutor handoff;
+    private final LongAdder evictedTopics = new LongAdder();
 
+    public TopicService(int messageLimit, int publishersLimit, int subscribersLimit) {
+        this(TopicSettings.builder()
+                .messageLimit(messageLimit)
+                .publishersLimit(publishersLimit)
+                .subscribersLimit(subscribersLimit)
+                .build());
+    }
+
+    public TopicService(@NonNull TopicSettings settings) {
+        this(settings, HistoryFactory.inMemory());
+    }
+
+    /**
+     * Topics which already have history in {@code historyFactory} are opened immediately.
+     */
+    public TopicService(@NonNull TopicSettings settings, @NonNull HistoryFactory<M> historyFactory) {
+        this(settings, historyFactory, TopicRouter.local());
+    }
+
+    /**
+     * Topics owned by other nodes according to {@code router} are created as replicas.
+     */
+    public TopicService(@NonNull TopicSettings settings, @NonNull HistoryFactory<M> historyFactory,
+                        @NonNull TopicRouter<M> router) {
+        this.settings = settings;
+        this.historyFactory = historyFactory;
+        this.router = router;
+        this.dispatcher = new Dispatcher(settings.getMailboxCapacity(), settings.getOverflowPolicy(),
+                settings.getUnwritableTimeoutMillis());
+        this.shards = settings.getShards() > 0 ? new DefaultEventExecutorGroup(settings.getShards()) : null;
+        this.shardExecutors = shards == null ? new EventExecutor[0]
+                : StreamSupport.stream(shards.spliterator(), false).toArray(EventExecutor[]::new);
+        this.handoff = shards == null ? newHandoffExecutor() : null;
+        historyFactory.existingTopics().forEach(this::restoreTopic);
+    }
 
+    /**
+     * A slot for the new topic is reserved before it is created, so concurrent callers never exceed the topics
+     * limit. Evicted topic stays in the map until its history is closed, joins of it fail with
+     * {@link TopicClosedException} meanwhile.
+     *
+     * @throws OversizeException if there are too many topics and none of them could be evicted.
+     */
     public Topic<M> getTopic(String topic) {
-        return topics.computeIfAbsent(topic,
-                ign -> new TopicService.Topic<>(topic, messageLimit,
-                        subscribersLimit, publishersLimit));
+        return getTopic(topic, true);
+    }
+
+    /**
+     * Creates the topic for a restart even above the topics limit, so restoring topics never evicts topics
+     * restored before. The limit applies again to topics created later, they evict idle restored topics.
+     */
+    public Topic<M> restoreTopic(String topic) {
+        return getTopic(topic, false);
+    }
+
+    private Topic<M> getTopic(String topic, boolean limited) {
+        while (true) {
+            var existing = topics.get(topic);
+            if (existing != null) {
+                return existing;
+            }
+            var creation = new CompletableFuture<Void>();
+            var pending = creations.putIfAbsent(topic, creation);
+            if (pending != null) {
+                // history of a topic must not be opened twice, wait for the other creator and look again
+                pending.join();
+                continue;
+            }
+            try {
+                return createTopic(topic, limited);
+            } finally {
+                creations.remove(topic, creation);
+                creation.complete(null);
+            }
+        }
+    }
+
+    /**
+     * History is opened outside of the map, the upstream is opened only after the topic is published.
+     */
+    private Topic<M> createTopic(String topic, boolean limited) {
+        while (true) {
+            var existing = topics.get(topic);
+            if (existing != null) {
+                return existing;
+            }
+            if (!limited) {
+                topicCount.incrementAndGet();
+            } else if (!reserveTopic()) {
+                if (!evictLeastRecentlyUsed()) {
+                    throw new OversizeException(settings.getTopicsLimit());
+                }
+                continue;
+            }
+            Topic<M> result;
+            try {
+                result = new TopicService.Topic<>(topic, settings, dispatcher,
+                        historyFactory.create(topic, settings.getMessageLimit()), executorFor(topic),
+                        router.upstreamOf(topic));
+            } catch (RuntimeException e) {
+                topicCount.decrementAndGet();
+                throw e;
+            }
+            existing = topics.putIfAbsent(topic, result);
+            if (existing != null) {
+                topicCount.decrementAndGet();
+                result.messages.close();
+                return existing;
+            }
+            metrics.register(topic, result.metrics);
+            if (result.upstream != null) {
+                result.upstream.open(result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return existing topic or {@code null}, unlike {@link #getTopic(String)} never creates the topic.
+     */
+    public Topic<M> findTopic(String topic) {
+        return topics.get(topic);
+    }
+
+    /**
+     * Evicts topics which have no publishers and subscribers for longer than
+     * {@link TopicSettings#getTopicIdleMillis()}. Eviction itself runs on the executor of the topic.
+     */
+    public void evictIdle() {
+        long idleMillis = settings.getTopicIdleMillis();
+        if (idleMillis <= 0) {
+            return;
+        }
+        long idleSince = System.currentTimeMillis() - idleMillis;
+        topics.values().stream()
+                .filter(topic -> topic.isIdleSince(idleSince))
+                .forEach(topic -> evict(topic, idleSince));
+    }
+
+    public Collection<Topic<M>> getTopics() {
+        return Collections.unmodifiableCollection(topics.values());
+    }
+
+    /**
+     * @return topics which are not evicted.
+     */
+    public int getTopicCount() {
+        return topicCount.get();
+    }
+
+    /**
+     * @return bytes retained by histories of all topics.
+     */
+    public long getHistoryBytes() {
+        return topics.values().stream().mapToLong(Topic::getHistoryBytes).sum();
     }
 
+    public long getEvictedTopics() {
+        return evictedTopics.sum();
+    }
+
+    private boolean reserveTopic() {
+        int limit = settings.getTopicsLimit();
+        while (true) {
+            int count = topicCount.get();
+            if (limit > 0 && count >= limit) {
+                return false;
+            }
+            if (topicCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Concurrent callers never evict the same topic twice, the one which lost the race looks for another topic.
+     *
+     * @return {@code false} if there is no idle topic.
+     */
+    private boolean evictLeastRecentlyUsed() {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Topic<M> leastRecentlyUsed = null;
+            for (Topic<M> topic : topics.values()) {
+                if (topic.isIdleSince(now) && (leastRecentlyUsed == null
+                        || topic.lastActiveMillis < leastRecentlyUsed.lastActiveMillis)) {
+                    leastRecentlyUsed = topic;
+                }
+            }
+            if (leastRecentlyUsed == null) {
+                return false;
+            }
+            if (evict(leastRecentlyUsed, now)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Topic is evicted only if it is idle and no change is pending, its slot is released immediately.
+     * History is closed and the topic is removed from the map by its executor after already submitted tasks.
+     *
+     * @return {@code false} if the topic is in use or already evicted.
+     */
+    private boolean evict(Topic<M> topic, long idleSince) {
+        if (!topic.retire(idleSince)) {
+            return false;
+        }
+        metrics.unregister(topic.getTopic());
+        topicCount.decrementAndGet();
+        evictedTopics.increment();
+        topic.executor.execute(() -> {
+            topic.messages.close();
+            if (topic.upstream != null) {
+                topic.upstream.close();
+            }
+            topics.remove(topic.getTopic(), topic);
+            log.info("[{}] Topic is evicted", topic.getTopic());
+        });
+        return true;
+    }
+
+    /**
+     * Stops shards and closes histories of all topics.
+     */
+    public void close() {
+        shutdownExecutors();
+        topics.values().forEach(topic -> {
+            if (topic.upstream != null) {
+                topic.upstream.close();
+            }
+            topic.messages.close();
+        });
+    }
+
+    /**
+     * Stops topic executors once queued tasks are run, e.g. before the final snapshot. Must be called when
+     * clients don't publish anymore.
+     */
+    public void shutdownExecutors() {
+        if (shards != null) {
+            shards.shutdownGracefully(0, 5, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+        if (handoff != null) {
+            handoff.shutdown();
+            try {
+                if (!handoff.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.warn("Topic handoff executor didn't terminate in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Executor executorFor(String topic) {
+        if (shardExecutors.length == 0) {
+            return new SerialExecutor(SerialExecutor.DEFAULT_MAX_BATCH, handoff);
+        }
+        return shardExecutors[Math.floorMod(topic.hashCode(), shardExecutors.length)];
+    }
+
+    private static ThreadPoolExecutor newHandoffExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        var counter = new AtomicInteger();
+        // bounded, rejected handoffs keep running on the submitting thread, see SerialExecutor
+        var executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(HANDOFF_QUEUE_CAPACITY), task -> {
+            Thread thread = new Thread(task, "topic-handoff-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * All state changes and fan-out of a topic run serially on its executor, so the topic doesn't need locks.
+     * Registration methods complete returned futures when the change is applied.
+     */
     public static class Topic<M> {
+        private static final int RETIRED = -1;
+
         @Getter
         private final String topic;
 
         private final int messageLimit;
 
-        private final List<Message<M>> messages;
-        private final List<Publisher<M>> publishers;
-        private final List<Subscriber<M>> subscribers;
+        private final History<Message<M>> messages;
+        private final Executor executor;
+        private final BoundedMembership<Publisher<M>, String> publishers;
+        private final BoundedMembership<Subscriber<M>, Mailbox<M>> subscribers;
+        private final Dispatcher dispatcher;
+        private final TokenBucket rateLimiter;
+        private final TopicRouter.Upstream<M> upstream;
+        private final TopicMetrics metrics;
+        // accessed only by the executor, null if search is disabled
+        private final InvertedIndex index;
+        private volatile int subscriberCount;
+        private volatile int publisherCount;
+        private volatile long lastActiveMillis = System.currentTimeMillis();
+        // changes submitted and not applied yet, RETIRED once the topic is chosen for eviction
+        private final AtomicInteger pendingChanges = new AtomicInteger();
+        private volatile boolean closed;
 
-        protected Topic(String topic, int messageLimit, Integer subscriberLimit, Integer publisherLimit) {
+        protected Topic(String topic, TopicSettings settings, Dispatcher dispatcher, History<Message<M>> messages,
+                        Executor executor, TopicRouter.Upstream<M> upstream) {
             this.topic = topic;
-            this.messages = Collections.synchronizedList(new FramedQueue<>(messageLimit));
-            this.publishers = Collections.synchronizedList(new LimitedLinkedList<>(publisherLimit));
-            this.subscribers = Collections.synchronizedList(new LimitedLinkedList<>(subscriberLimit));
-            this.messageLimit = messageLimit;
+            this.metrics = new TopicMetrics(this::getHistorySize, this::getHistoryBytes, this::getSubscriberCount);
+            this.messages = messages;
+            this.executor = executor;
+            this.publishers = new BoundedMembership<>(settings.getPublishersLimit());
+            this.subscribers = new BoundedMembership<>(settings.getSubscribersLimit());
+            this.messageLimit = settings.getMessageLimit();
+            this.dispatcher = dispatcher;
+            this.rateLimiter = settings.rateLimitOf(topic).newBucket();
+            this.upstream = upstream;
+            this.index = settings.isSearchIndex() ? new InvertedIndex() : null;
         }
 
-        public void publish(String sender, M message) {
-            Instant now = Instant.now();
-            messages.add(new Message<>(now, message, sender));
-            subscribers.parallelStream().forEach(subscriber -> subscriber.handleMessage(topic, sender, message, now));
+        /**
+         * Message published to a replica is sent to the owner and fanned out when the owner delivers it back.
+         *
+         * @return {@code false} if the message is rejected by the topic rate limit or the owner of the replica
+         * isn't reachable.
+         */
+        public boolean publish(String sender, M message) {
+            if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+                dispatcher.onThrottle();
+                return false;
+            }
+            if (upstream != null) {
+                return upstream.publish(sender, message);
+            }
+            executor.execute(() -> fanOut(sender, message, Instant.now()));
+            return true;
         }
 
-        public synchronized void registerPublisher(@NonNull Publisher<M> publisher) {
-            publishers.add(publisher);
+        /**
+         * Publishes message forwarded by a replica of this topic, the replica has already applied the rate limit.
+         */
+        public void publishForwarded(String sender, M message) {
+            if (upstream != null) {
+                upstream.publish(sender, message);
+                return;
+            }
+            executor.execute(() -> fanOut(sender, message, Instant.now()));
         }
 
-        public synchronized void registerSubscriber(@NonNull Subscriber<M> subscriber) {
-            messages.forEach(message ->
-                    subscriber.handleMessage(topic, message.sender(), message.message(), message.timestamp()));
-            subscribers.add(subscriber);
+        /**
+         * Fans out message sequenced by the owner of the replica, the replica keeps the owner's sequence.
+         * Messages before the next sequence of the replica are ignored as duplicates.
+         */
+        public void deliver(long sequence, String sender, M message, Instant timestamp) {
+            executor.execute(() -> {
+                if (closed || sequence < messages.nextSequence()) {
+                    return;
+                }
+                messages.skipTo(sequence);
+                fanOut(sender, message, timestamp);
+            });
         }
 
-        public synchronized void unregisterPublisher(@NonNull Publisher<M> publisher) {
-            publishers.remove(publisher);
+        /**
+         * Skips messages the owner of the replica evicted before they were delivered
+         * and reports them to subscribers in order with delivered messages.
+         */
+        public void deliverGap(long fromSequence, long toSequence) {
+            executor.execute(() -> {
+                long from = Math.max(fromSequence, messages.nextSequence());
+                if (closed || toSequence <= from) {
+                    return;
+                }
+                messages.skipTo(toSequence);
+                var gap = Broadcast.<M>gap(topic, from, toSequence);
+                List<Mailbox<M>> targets = subscribers.snapshot();
+                for (int i = 0; i < targets.size(); i++) {
+                    targets.get(i).offer(gap);
+                }
+            });
         }
 
-        public synchronized void unregisterSubscriber(@NonNull Subscriber<M> subscriber) {
-            subscribers.remove(subscriber);
+        public boolean isReplica() {
+            return upstream != null;
         }
 
-        public synchronized void registerClient(@NonNull Publisher<M> publisher, @NonNull Subscriber<M> subscriber) {
-            registerPublisher(publisher);
-            registerSubscriber(subscriber);
+        public CompletableFuture<Void> registerPublisher(@NonNull Publisher<M> publisher) {
+            return submit(() -> {
+                publishers.put(publisher, publisher.getPublisherName());
+                membersChanged();
+            });
         }
 
-        public synchronized void unregisterClient(@NonNull Publisher<M> publisher, @NonNull Subscriber<M> subscriber) {
-            unregisterPublisher(publisher);
-            unregisterSubscriber(subscriber);
+        /**
+         * History is replayed asynchronously by the subscriber mailbox, paced by subscriber writability.
+         */
+        public CompletableFuture<Void> registerSubscriber(@NonNull Subscriber<M> subscriber) {
+            return submit(() -> addSubscriber(subscriber,
+                    Math.max(messages.firstSequence(), messages.nextSequence() - messageLimit)));
         }
 
-        public List<String> getPublisherIds() {
-            return publishers.stream().map(Publisher::getPublisherName).toList();
+        /**
+         * Replays all retained messages starting from {@code fromSequence}, evicted ones are reported as a gap.
+         */
+        public CompletableFuture<Void> registerSubscriber(@NonNull Subscriber<M> subscriber, long fromSequence) {
+            return submit(() -> addSubscriber(subscriber, fromSequence));
         }
-    }
-}
 
+        public CompletableFuture<Void> unregisterPublisher(@NonNull Publisher<M> publisher) {
+            return submit(() -> {
+                publishers.remove(publisher);
+                membersChanged();
+            });
+        }
+
+        public CompletableFuture<Void> unregisterSubscriber(@NonNull Subscriber<M> subscriber) {
+            return submit(() -> removeSubscriber(subscriber));
+        }
+
+        public CompletableFuture<Void> registerClient(@NonNull Publisher<M> publisher,
+                                                      @NonNull Subscriber<M> subscriber) {
+            return submit(() -> addClient(publisher, subscriber,
+                    Math.max(messages.firstSequence(), messages.nextSequence() - messageLimit)));
+        }
+
+        public CompletableFuture<Void> registerClient(@NonNull Publisher<M> publisher,
+                                                      @NonNull Subscriber<M> subscriber, long fromSequence) {
+            return submit(() -> addClient(publisher, subscriber, fromSequence));
+        }
+
+        public CompletableFuture<Void> unregisterClient(@NonNull Publisher<M> publisher,
+                                                        @NonNull Subscriber<M> subscriber) {
+            return submit(() -> {
+                publishers.remove(publisher);
+                removeSubscriber(subscriber);
+                membersChanged();
+            });
+        }
+
+        public long getHistorySize() {
+            return messages.size();
+        }
+
+        public long getHistoryBytes() {
+            return messages.estimatedBytes();
+        }
+
+        public long getSubscriberCount() {
+            return subscriberCount;
+        }
+
+        /**
+         * Reads retained messages from {@code fromSequence} until {@code untilSequence} exclusive.
+         *
+         * @return sequence to continue reading from.
+         */
+        public long readHistory(long fromSequence, long untilSequence,
+                                History.SequencedConsumer<? super Message<M>> consumer) {
+            return messages.read(fromSequence, (int) Math.min(Integer.MAX_VALUE, untilSequence - fromSequence),
+                    (sequence, message) -> {
+                        if (sequence < untilSequence) {
+                            consumer.accept(sequence, message);
+                        }
+                    });
+        }
+
+        public long getFirstSequence() {
+            return messages.firstSequence();
+        }
+
+        public long getNextSequence() {
+            return messages.nextSequence();
+        }
+
+        /**
+         * Puts message back to history with its original sequence, e.g. after restart.
+         * Messages already present in the history are ignored. Must be called before the topic is used.
+         */
+        public void restore(Message<M> message) {
+            if (message.sequence() < messages.nextSequence()) {
+                return;
+            }
+            restoreUpTo(message.sequence());
+            index(messages.append(ign -> message));
+        }
+
+        /**
+         * Continues sequences of the topic from {@code nextSequence} unless they are already further.
+         */
+        public void restoreUpTo(long nextSequence) {
+            if (nextSequence > messages.nextSequence()) {
+                messages.skipTo(nextSequence);
+            }
+        }
 
+        /**
+         * @return publishers after all previously submitted changes are applied.
+         */
+        public CompletableFuture<List<String>> getPublisherIds() {
+            var result = new CompletableFuture<List<String>>();
+            executor.execute(() -> result.complete(publishers.snapshot()));
+            return result;
+        }
+
+        /**
+         * Looks up retained messages containing {@code term} in the topic index.
+         *
+         * @return at most {@code limit} newest found messages in sequence order, nothing if search is disabled.
+         */
+        public CompletableFuture<List<Message<M>>> search(String term, int limit) {
+            var result = new CompletableFuture<List<Message<M>>>();
+            executor.execute(() -> {
+                if (index == null) {
+                    result.complete(List.of());
+                    return;
+                }
+                // history may be trimmed without appends, e.g. by the shared budget
+                index.evictBefore(messages.firstSequence());
+                long[] sequences = index.search(term, limit);
+                List<Message<M>> found = new ArrayList<>(sequences.length);
+                for (long sequence : sequences) {
+                    var message = messages.get(sequence);
+                    if (message != null) {
+                        found.add(message);
+                    }
+                }
+                result.complete(found);
+            });
+            return result;
+        }
+
+        private void fanOut(String sender, M message, Instant timestamp) {
+            if (closed) {
+                return;
+            }
+            if (upstream == null) {
+                // deliveries from the owner don't keep a replica without members alive
+                lastActiveMillis = System.currentTimeMillis();
+            }
+            var published = messages.append(sequence -> new Message<>(sequence, timestamp, message, sender));
+            index(published);
+            long start = System.nanoTime();
+            var broadcast = new Broadcast<>(topic, published);
+            try {
+                List<Mailbox<M>> targets = subscribers.snapshot();
+                for (int i = 0; i < targets.size(); i++) {
+                    targets.get(i).offer(broadcast);
+                }
+            } finally {
+                broadcast.release();
+            }
+            metrics.onPublish(System.nanoTime() - start);
+        }
+
+        private void index(Message<M> message) {
+            if (index != null) {
+                index.add(message.sequence(), String.valueOf(message.message()));
+                index.evictBefore(messages.firstSequence());
+            }
+        }
+
+        private void addClient(Publisher<M> publisher, Subscriber<M> subscriber, long fromSequence) {
+            boolean added = publishers.put(publisher, publisher.getPublisherName()) == null;
+            try {
+                addSubscriber(subscriber, fromSequence);
+            } catch (RuntimeException e) {
+                if (added) {
+                    publishers.remove(publisher);
+                }
+                throw e;
+            } finally {
+                membersChanged();
+            }
+        }
+
+        private void addSubscriber(Subscriber<M> subscriber, long fromSequence) {
+            long from = Math.max(0, Math.min(fromSequence, messages.nextSequence()));
+            var mailbox = dispatcher.mailbox(topic, subscriber, messages, from);
+            Mailbox<M> previous;
+            try {
+                previous = subscribers.put(subscriber, mailbox);
+            } catch (RuntimeException e) {
+                mailbox.close();
+                throw e;
+            }
+            if (previous != null) {
+                previous.close();
+            }
+            membersChanged();
+            mailbox.catchUp(messages.nextSequence());
+        }
+
+        private void removeSubscriber(Subscriber<M> subscriber) {
+            var mailbox = subscribers.remove(subscriber);
+            if (mailbox != null) {
+                mailbox.close();
+            }
+            membersChanged();
+        }
+
+        private void membersChanged() {
+            subscriberCount = subscribers.size();
+            publisherCount = publishers.size();
+            lastActiveMillis = System.currentTimeMillis();
+        }
+
+        private boolean isIdleSince(long millis) {
+            return pendingChanges.get() == 0 && isUnusedSince(millis);
+        }
+
+        private boolean isUnusedSince(long millis) {
+            return subscriberCount == 0 && publisherCount == 0 && lastActiveMillis <= millis;
+        }
+
+        /**
+         * Closes the topic if it is idle. Member counts are updated before a change stops being pending,
+         * so a client joining concurrently either fails with {@link TopicClosedException} or keeps the topic.
+         */
+        private boolean retire(long idleSince) {
+            if (!pendingChanges.compareAndSet(0, RETIRED)) {
+                return false;
+            }
+            if (!isUnusedSince(idleSince)) {
+                pendingChanges.set(0);
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+
+        private CompletableFuture<Void> submit(Runnable change) {
+            if (pendingChanges.getAndUpdate(count -> count == RETIRED ? count : count + 1) == RETIRED) {
+                return CompletableFuture.failedFuture(new TopicClosedException(topic));
+            }
+            var result = new CompletableFuture<Void>();
+            executor.execute(() -> {
+                try {
+                    if (closed) {
+                        throw new TopicClosedException(topic);
+                    }
+                    change.run();
+                    result.complete(null);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    pendingChanges.decrementAndGet();
+                }
+            });
+            return result;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.marsofandrew.chat.core;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+import org.marsofandrew.chat.core.dispatch.OverflowPolicy;
+import org.marsofandrew.chat.core.utils.RateLimit;
+
+import java.util.Map;
+
+/**
+ * Settings shared by all topics of {@link TopicService}.
+ */
+@Getter
+@Builder
+public class TopicSettings {
+
+    private final int messageLimit;
+    private final int publishersLimit;
+    private final int subscribersLimit;
+
+    @Builder.Default
+    private final int mailboxCapacity = 1024;
+
+    @Builder.Default
+    private final OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    /**
+     * How long subscriber may stay unwritable before {@link OverflowPolicy#DISCONNECT} disconnects it.
+     */
+    @Builder.Default
+    private final long unwritableTimeoutMillis = 30_000;
+
+    /**
+     * Topic without publishers and subscribers is evicted by {@link TopicService#evictIdle()} after this time,
+     * 0 keeps such topics forever.
+     */
+    @Builder.Default
+    private final long topicIdleMillis = 600_000;
+
+    /**
+     * Maximum number of topics, 0 means no limit. When the limit is reached, the least recently used topic
+     * without members is evicted to create a new one.
+     */
+    private final int topicsLimit;
+
+    /**
+     * Number of threads topics are pinned to by topic name, 0 runs each topic serially on calling threads.
+     */
+    private final int shards;
+
+    /**
+     * Publish rate of a single client.
+     */
+    @Builder.Default
+    private final RateLimit clientRateLimit = RateLimit.UNLIMITED;
+
+    /**
+     * Publish rate of a topic summed over all its publishers, unless overridden by {@link #topicRateLimits}.
+     */
+    @Builder.Default
+    private final RateLimit topicRateLimit = RateLimit.UNLIMITED;
+
+    @Singular
+    private final Map<String, RateLimit> topicRateLimits;
+
+    /**
+     * Keeps an inverted index of every topic history for {@link TopicService.Topic#search(String, int)}.
+     */
+    private final boolean searchIndex;
+
+    public RateLimit rateLimitOf(String topic) {
+        return topicRateLimits.getOrDefault(topic, topicRateLimit);
+    }
+}
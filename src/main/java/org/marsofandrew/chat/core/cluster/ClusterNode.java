@@ -0,0 +1,140 @@
+package org.marsofandrew.chat.core.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.core.TopicRouter;
+import org.marsofandrew.chat.core.TopicService;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Node of a cluster with a static list of nodes. Every topic is owned by the node chosen by {@link HashRing},
+ * other nodes keep replicas of it for their clients. A replica opens a link to the owner, forwards messages
+ * published by its clients and receives sequenced messages back. The owner subscribes every linked node to
+ * the topic with a single {@link RemoteSubscriber}, so a message crosses the network once per node.
+ *
+ * @param <M> Message type.
+ */
+@Slf4j
+public class ClusterNode<M> implements TopicRouter<M> {
+
+    private final ClusterSettings settings;
+    private final MessageCodec<M> codec;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final Class<? extends ServerChannel> serverChannel;
+    private final HashRing ring;
+    private final Map<String, PeerLink<M>> peers;
+    private final MessageEncoder<M> encoder;
+    private Channel server;
+
+    public ClusterNode(ClusterSettings settings, MessageCodec<M> codec, EventLoopGroup bossGroup,
+                       EventLoopGroup workerGroup, Class<? extends ServerChannel> serverChannel,
+                       Class<? extends Channel> channel) {
+        this.settings = settings;
+        this.codec = codec;
+        this.bossGroup = bossGroup;
+        this.workerGroup = workerGroup;
+        this.serverChannel = serverChannel;
+        this.encoder = new DeliverEncoder<>(codec, PooledByteBufAllocator.DEFAULT);
+        List<String> nodes = new ArrayList<>(settings.getPeers());
+        nodes.add(settings.getNode());
+        this.ring = new HashRing(nodes, settings.getVirtualNodes());
+        this.peers = settings.getPeers().stream()
+                .collect(Collectors.toMap(Function.identity(), peer -> newLink(peer, channel)));
+    }
+
+    /**
+     * @return owner of the topic, either this node or one of peers.
+     */
+    public String ownerOf(String topic) {
+        return ring.ownerOf(topic);
+    }
+
+    @Override
+    public Upstream<M> upstreamOf(String topic) {
+        String owner = ring.ownerOf(topic);
+        return owner.equals(settings.getNode()) ? null : peers.get(owner).upstream(topic);
+    }
+
+    /**
+     * Starts accepting links of other nodes to topics owned by this node.
+     */
+    public void start(TopicService<M> topicService) throws InterruptedException {
+        server = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(serverChannel)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new FlushConsolidationHandler(
+                                        FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true),
+                                LinkProtocol.frameDecoder(settings.getMaxFrameBytes()),
+                                new OwnerLinkHandler<>(topicService, codec, encoder));
+                    }
+                })
+                .bind(bindAddress(settings.getNode())).sync().channel();
+        log.info("Cluster node {} started with peers {}", settings.getNode(), settings.getPeers());
+    }
+
+    public void close() {
+        peers.values().forEach(PeerLink::close);
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private PeerLink<M> newLink(String peer, Class<? extends Channel> channel) {
+        var bootstrap = new Bootstrap()
+                .group(workerGroup)
+                .channel(channel)
+                .option(ChannelOption.TCP_NODELAY, true);
+        var link = new PeerLink<>(peer, address(peer), bootstrap, codec, settings.getReconnectMillis());
+        bootstrap.handler(new ChannelInitializer<>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline().addLast(new FlushConsolidationHandler(
+                                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true),
+                        LinkProtocol.frameDecoder(settings.getMaxFrameBytes()),
+                        link.newHandler());
+            }
+        });
+        return link;
+    }
+
+    /**
+     * Unlike {@link #address(String)} resolves the host right away.
+     */
+    static InetSocketAddress bindAddress(String node) {
+        var address = address(node);
+        return new InetSocketAddress(address.getHostString(), address.getPort());
+    }
+
+    /**
+     * @param node address in {@code host:port} format.
+     */
+    static InetSocketAddress address(String node) {
+        int separator = node.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Node address should be in host:port format: " + node);
+        }
+        return InetSocketAddress.createUnresolved(node.substring(0, separator),
+                Integer.parseInt(node.substring(separator + 1)));
+    }
+}
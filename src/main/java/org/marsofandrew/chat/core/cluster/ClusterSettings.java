@@ -0,0 +1,38 @@
+package org.marsofandrew.chat.core.cluster;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Singular;
+
+import java.util.List;
+
+/**
+ * Settings of {@link ClusterNode}. Nodes are identified by {@code host:port} of their cluster link,
+ * all nodes of a cluster have to be configured with the same set of nodes.
+ */
+@Getter
+@Builder
+public class ClusterSettings {
+
+    /**
+     * Address this node accepts cluster links on.
+     */
+    @NonNull
+    private final String node;
+
+    /**
+     * Addresses of other nodes.
+     */
+    @Singular
+    private final List<String> peers;
+
+    @Builder.Default
+    private final int virtualNodes = 128;
+
+    @Builder.Default
+    private final long reconnectMillis = 1000;
+
+    @Builder.Default
+    private final int maxFrameBytes = 1024 * 1024;
+}
@@ -0,0 +1,25 @@
+package org.marsofandrew.chat.core.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import lombok.RequiredArgsConstructor;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+
+/**
+ * Renders {@link LinkProtocol#DELIVER} frames. One instance is shared by all links of a node,
+ * so a broadcast is encoded once for all nodes subscribed to the topic.
+ */
+@RequiredArgsConstructor
+class DeliverEncoder<M> implements MessageEncoder<M> {
+
+    private final MessageCodec<M> codec;
+    private final ByteBufAllocator allocator;
+
+    @Override
+    public ByteBuf encode(String topic, Message<M> message) {
+        return LinkProtocol.deliver(allocator, topic, message.sequence(), message.timestamp(), message.sender(),
+                codec.encode(message.message()));
+    }
+}
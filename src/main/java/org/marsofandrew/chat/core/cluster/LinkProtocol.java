@@ -0,0 +1,165 @@
+package org.marsofandrew.chat.core.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Frames of the link between cluster nodes. Every frame is {@code int length, byte type, body},
+ * strings are {@code short length, UTF-8 bytes}, payloads are {@code int length, bytes}.
+ * <ul>
+ *     <li>{@link #SUBSCRIBE} {@code topic, long fromSequence} - replica asks the owner for messages,
+ *     {@link #RECENT} replays recent history like for a new client</li>
+ *     <li>{@link #UNSUBSCRIBE} {@code topic}</li>
+ *     <li>{@link #PUBLISH} {@code topic, sender, payload} - replica forwards message of a local client</li>
+ *     <li>{@link #DELIVER} {@code topic, long sequence, long epochSecond, int nano, sender, payload} - owner
+ *     sends sequenced message</li>
+ *     <li>{@link #GAP} {@code topic, long fromSequence, long toSequence} - owner reports messages evicted
+ *     before they were sent</li>
+ * </ul>
+ */
+final class LinkProtocol {
+
+    static final byte SUBSCRIBE = 1;
+    static final byte UNSUBSCRIBE = 2;
+    static final byte PUBLISH = 3;
+    static final byte DELIVER = 4;
+    static final byte GAP = 5;
+
+    static final long RECENT = -1;
+
+    private static final int LENGTH_BYTES = 4;
+
+    private LinkProtocol() {
+    }
+
+    static LengthFieldBasedFrameDecoder frameDecoder(int maxFrameBytes) {
+        return new LengthFieldBasedFrameDecoder(maxFrameBytes, 0, LENGTH_BYTES, 0, LENGTH_BYTES);
+    }
+
+    static ByteBuf subscribe(ByteBufAllocator allocator, String topic, long fromSequence) {
+        ByteBuf frame = start(allocator, SUBSCRIBE, Short.BYTES + ByteBufUtil.utf8MaxBytes(topic) + Long.BYTES);
+        try {
+            writeString(frame, topic);
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        frame.writeLong(fromSequence);
+        return finish(frame);
+    }
+
+    static ByteBuf unsubscribe(ByteBufAllocator allocator, String topic) {
+        ByteBuf frame = start(allocator, UNSUBSCRIBE, Short.BYTES + ByteBufUtil.utf8MaxBytes(topic));
+        try {
+            writeString(frame, topic);
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        return finish(frame);
+    }
+
+    static ByteBuf publish(ByteBufAllocator allocator, String topic, String sender, byte[] payload) {
+        ByteBuf frame = start(allocator, PUBLISH, 2 * Short.BYTES + ByteBufUtil.utf8MaxBytes(topic)
+                + ByteBufUtil.utf8MaxBytes(sender) + Integer.BYTES + payload.length);
+        try {
+            writeString(frame, topic);
+            writeString(frame, sender);
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        writeBytes(frame, payload);
+        return finish(frame);
+    }
+
+    static ByteBuf deliver(ByteBufAllocator allocator, String topic, long sequence, Instant timestamp,
+                           String sender, byte[] payload) {
+        ByteBuf frame = start(allocator, DELIVER, 2 * Short.BYTES + ByteBufUtil.utf8MaxBytes(topic)
+                + 2 * Long.BYTES + Integer.BYTES + ByteBufUtil.utf8MaxBytes(sender) + Integer.BYTES + payload.length);
+        try {
+            writeString(frame, topic);
+            frame.writeLong(sequence);
+            frame.writeLong(timestamp.getEpochSecond());
+            frame.writeInt(timestamp.getNano());
+            writeString(frame, sender);
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        writeBytes(frame, payload);
+        return finish(frame);
+    }
+
+    static ByteBuf gap(ByteBufAllocator allocator, String topic, long fromSequence, long toSequence) {
+        ByteBuf frame = start(allocator, GAP, Short.BYTES + ByteBufUtil.utf8MaxBytes(topic) + 2 * Long.BYTES);
+        try {
+            writeString(frame, topic);
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        frame.writeLong(fromSequence);
+        frame.writeLong(toSequence);
+        return finish(frame);
+    }
+
+    static String readString(ByteBuf frame) {
+        int length = frame.readUnsignedShort();
+        if (length > frame.readableBytes()) {
+            throw new CorruptedFrameException("Invalid string length " + length);
+        }
+        String value = frame.toString(frame.readerIndex(), length, StandardCharsets.UTF_8);
+        frame.skipBytes(length);
+        return value;
+    }
+
+    static byte[] readBytes(ByteBuf frame) {
+        int length = frame.readInt();
+        if (length < 0 || length > frame.readableBytes()) {
+            throw new CorruptedFrameException("Invalid payload length " + length);
+        }
+        byte[] bytes = new byte[length];
+        frame.readBytes(bytes);
+        return bytes;
+    }
+
+    static Instant readInstant(ByteBuf frame) {
+        long epochSecond = frame.readLong();
+        return Instant.ofEpochSecond(epochSecond, frame.readInt());
+    }
+
+    private static ByteBuf start(ByteBufAllocator allocator, byte type, int maxBodyBytes) {
+        ByteBuf frame = allocator.directBuffer(LENGTH_BYTES + 1 + maxBodyBytes);
+        frame.writeInt(0);
+        frame.writeByte(type);
+        return frame;
+    }
+
+    private static ByteBuf finish(ByteBuf frame) {
+        return frame.setInt(0, frame.writerIndex() - LENGTH_BYTES);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string is longer than 65535 bytes, nothing is written then.
+     */
+    private static void writeString(ByteBuf frame, String value) {
+        int length = ByteBufUtil.utf8Bytes(value);
+        if (length > 0xffff) {
+            throw new IllegalArgumentException("String is too long for the cluster link: " + length + " bytes");
+        }
+        frame.writeShort(length);
+        ByteBufUtil.writeUtf8(frame, value);
+    }
+
+    private static void writeBytes(ByteBuf frame, byte[] bytes) {
+        frame.writeInt(bytes.length);
+        frame.writeBytes(bytes);
+    }
+}
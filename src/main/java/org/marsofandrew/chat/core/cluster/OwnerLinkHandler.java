@@ -0,0 +1,120 @@
+package org.marsofandrew.chat.core.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.core.TopicService;
+import org.marsofandrew.chat.core.logging.LogRateLimiter;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a link opened by another node: subscribes the node to topics of this node and publishes
+ * messages forwarded by it.
+ */
+@Slf4j
+class OwnerLinkHandler<M> extends SimpleChannelInboundHandler<ByteBuf> {
+
+    private static final LogRateLimiter FAILURE_LOG = new LogRateLimiter(1, TimeUnit.SECONDS);
+
+    private final TopicService<M> topicService;
+    private final MessageCodec<M> codec;
+    private final MessageEncoder<M> encoder;
+    // accessed only by the event loop of the link
+    private final Set<String> topics = new HashSet<>();
+    private RemoteSubscriber<M> subscriber;
+
+    OwnerLinkHandler(TopicService<M> topicService, MessageCodec<M> codec, MessageEncoder<M> encoder) {
+        this.topicService = topicService;
+        this.codec = codec;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        subscriber = new RemoteSubscriber<>(ctx.channel(), encoder);
+        log.info("Node {} is linked", ctx.channel().remoteAddress());
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+        byte type = frame.readByte();
+        String topic = LinkProtocol.readString(frame);
+        try {
+            switch (type) {
+                case LinkProtocol.SUBSCRIBE -> subscribe(topic, frame.readLong());
+                case LinkProtocol.UNSUBSCRIBE -> unsubscribe(topic);
+                case LinkProtocol.PUBLISH -> {
+                    String sender = LinkProtocol.readString(frame);
+                    // the replica has already applied the topic rate limit
+                    topicService.getTopic(topic).publishForwarded(sender,
+                            codec.decode(LinkProtocol.readBytes(frame)));
+                }
+                default -> throw new CorruptedFrameException("Unknown frame type " + type);
+            }
+        } catch (CorruptedFrameException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            logFailure(topic, e);
+        }
+    }
+
+    private void unsubscribe(String topic) {
+        topics.remove(topic);
+        var target = topicService.findTopic(topic);
+        if (target != null) {
+            target.unregisterSubscriber(subscriber);
+        }
+    }
+
+    private void subscribe(String topic, long fromSequence) {
+        topics.add(topic);
+        var target = topicService.getTopic(topic);
+        var registered = fromSequence == LinkProtocol.RECENT ? target.registerSubscriber(subscriber)
+                : target.registerSubscriber(subscriber, fromSequence);
+        registered.whenComplete((ignored, e) -> {
+            if (e != null) {
+                logFailure(topic, e);
+            }
+        });
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        subscriber.writabilityChanged();
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        log.info("Node {} is unlinked", ctx.channel().remoteAddress());
+        for (String topic : topics) {
+            var target = topicService.findTopic(topic);
+            if (target != null) {
+                target.unregisterSubscriber(subscriber);
+            }
+        }
+        topics.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.warn("Close link of node {}", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+
+    private void logFailure(String topic, Throwable e) {
+        if (FAILURE_LOG.tryAcquire()) {
+            log.warn("[{}] Couldn't serve linked node, {} similar failures suppressed", topic,
+                    FAILURE_LOG.drainSuppressed(), e);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.marsofandrew.chat.core.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.core.TopicRouter;
+import org.marsofandrew.chat.core.TopicService;
+import org.marsofandrew.chat.core.logging.LogRateLimiter;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+
+import java.net.SocketAddress;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Link from this node to the owner of some topics. It is connected when the first replica of the owner's topic
+ * is opened and reconnects while it is not closed, resubscribing replicas from the last delivered sequence.
+ */
+@Slf4j
+class PeerLink<M> {
+
+    private static final LogRateLimiter UNLINKED_LOG = new LogRateLimiter(1, TimeUnit.SECONDS);
+
+    private final String node;
+    private final SocketAddress address;
+    private final Bootstrap bootstrap;
+    private final MessageCodec<M> codec;
+    private final long reconnectMillis;
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
+    private final AtomicBoolean connecting = new AtomicBoolean();
+    private volatile Channel channel;
+    private volatile boolean closed;
+
+    PeerLink(String node, SocketAddress address, Bootstrap bootstrap, MessageCodec<M> codec, long reconnectMillis) {
+        this.node = node;
+        this.address = address;
+        this.bootstrap = bootstrap;
+        this.codec = codec;
+        this.reconnectMillis = reconnectMillis;
+    }
+
+    TopicRouter.Upstream<M> upstream(String topic) {
+        return new Replica(topic);
+    }
+
+    void close() {
+        closed = true;
+        Channel current = channel;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    SimpleChannelInboundHandler<ByteBuf> newHandler() {
+        return new Handler();
+    }
+
+    private void connect() {
+        Channel current = channel;
+        if (closed || (current != null && current.isActive()) || !connecting.compareAndSet(false, true)) {
+            return;
+        }
+        bootstrap.connect(address).addListener((ChannelFutureListener) this::connected);
+    }
+
+    private void connected(ChannelFuture future) {
+        connecting.set(false);
+        if (!future.isSuccess()) {
+            if (UNLINKED_LOG.tryAcquire()) {
+                log.warn("Couldn't link node {}, {} similar failures suppressed", node, UNLINKED_LOG.drainSuppressed(),
+                        future.cause());
+            }
+            scheduleReconnect(future.channel());
+        }
+    }
+
+    private void scheduleReconnect(Channel previous) {
+        if (!closed) {
+            previous.eventLoop().schedule(this::connect, reconnectMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void subscribe(Channel current, Replica replica) {
+        long lastSequence = replica.lastSequence;
+        current.writeAndFlush(LinkProtocol.subscribe(current.alloc(), replica.topic,
+                lastSequence == Message.NO_SEQUENCE ? LinkProtocol.RECENT : lastSequence + 1));
+    }
+
+    private class Replica implements TopicRouter.Upstream<M> {
+
+        private final String topic;
+        private volatile TopicService.Topic<M> target;
+        private volatile long lastSequence = Message.NO_SEQUENCE;
+
+        private Replica(String topic) {
+            this.topic = topic;
+        }
+
+        @Override
+        public void open(TopicService.Topic<M> replica) {
+            target = replica;
+            if (replica.getNextSequence() > 0) {
+                // e.g. persistent history of the replica, the owner resumes after it
+                lastSequence = replica.getNextSequence() - 1;
+            }
+            replicas.put(topic, this);
+            Channel current = channel;
+            if (current != null && current.isActive()) {
+                subscribe(current, this);
+            } else {
+                connect();
+            }
+        }
+
+        @Override
+        public boolean publish(String sender, M message) {
+            Channel current = channel;
+            if (current == null || !current.isActive()) {
+                if (UNLINKED_LOG.tryAcquire()) {
+                    log.warn("[{}] Message is rejected, owner {} isn't linked, {} similar messages suppressed",
+                            topic, node, UNLINKED_LOG.drainSuppressed());
+                }
+                return false;
+            }
+            current.writeAndFlush(LinkProtocol.publish(current.alloc(), topic, sender, codec.encode(message)));
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (!replicas.remove(topic, this)) {
+                return;
+            }
+            Channel current = channel;
+            if (current != null && current.isActive()) {
+                current.writeAndFlush(LinkProtocol.unsubscribe(current.alloc(), topic));
+            }
+        }
+
+        private void deliver(long sequence, String sender, M message, Instant timestamp) {
+            // the owner replays from the requested sequence, so messages before it are duplicates
+            if (sequence <= lastSequence) {
+                return;
+            }
+            lastSequence = sequence;
+            target.deliver(sequence, sender, message, timestamp);
+        }
+
+        private void gap(long fromSequence, long toSequence) {
+            if (toSequence - 1 <= lastSequence) {
+                return;
+            }
+            lastSequence = toSequence - 1;
+            target.deliverGap(fromSequence, toSequence);
+        }
+    }
+
+    private class Handler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            channel = ctx.channel();
+            log.info("Linked node {}", node);
+            replicas.values().forEach(replica -> subscribe(ctx.channel(), replica));
+            super.channelActive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            byte type = frame.readByte();
+            if (type == LinkProtocol.GAP) {
+                Replica replica = replicas.get(LinkProtocol.readString(frame));
+                long fromSequence = frame.readLong();
+                long toSequence = frame.readLong();
+                if (replica != null) {
+                    replica.gap(fromSequence, toSequence);
+                }
+                return;
+            }
+            if (type != LinkProtocol.DELIVER) {
+                throw new CorruptedFrameException("Unexpected frame type " + type);
+            }
+            String topic = LinkProtocol.readString(frame);
+            long sequence = frame.readLong();
+            Instant timestamp = LinkProtocol.readInstant(frame);
+            String sender = LinkProtocol.readString(frame);
+            M message = codec.decode(LinkProtocol.readBytes(frame));
+            Replica replica = replicas.get(topic);
+            if (replica != null) {
+                replica.deliver(sequence, sender, message, timestamp);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (channel == ctx.channel()) {
+                channel = null;
+            }
+            log.info("Unlinked node {}", node);
+            scheduleReconnect(ctx.channel());
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("Close link to node {}", node, cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.marsofandrew.chat.core.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+import org.marsofandrew.chat.core.model.Subscriber;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Subscriber standing for all clients of another node. Messages are written to the cluster link as
+ * {@link LinkProtocol#DELIVER} frames and gaps as {@link LinkProtocol#GAP} frames, the node fans them out
+ * to its clients. Messages dropped when the link doesn't keep up are sent as gaps too.
+ */
+@Slf4j
+@RequiredArgsConstructor
+class RemoteSubscriber<M> implements Subscriber<M> {
+
+    private final Channel channel;
+    private final MessageEncoder<M> encoder;
+    private final List<Runnable> writabilityListeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void handleMessage(String topic, String sender, M message, Instant instant) {
+        handleMessage(topic, new Message<>(instant, message, sender));
+    }
+
+    @Override
+    public void handleMessage(String topic, Message<M> message) {
+        if (channel.isActive()) {
+            channel.write(encoder.encode(topic, message));
+        }
+    }
+
+    @Override
+    public void handleEncoded(String topic, Message<M> message, ByteBuf encoded) {
+        if (!channel.isActive()) {
+            encoded.release();
+            return;
+        }
+        channel.write(encoded);
+    }
+
+    @Override
+    public void handleGap(String topic, long fromSequence, long toSequence) {
+        log.debug("[{}] Messages {}..{} are evicted before they were sent to {}", topic, fromSequence, toSequence,
+                channel.remoteAddress());
+        if (channel.isActive()) {
+            channel.write(LinkProtocol.gap(channel.alloc(), topic, fromSequence, toSequence));
+        }
+    }
+
+    @Override
+    public boolean reportsDroppedMessages() {
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        channel.flush();
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return channel.eventLoop();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return channel.isWritable();
+    }
+
+    @Override
+    public void addWritabilityListener(Runnable listener) {
+        writabilityListeners.add(listener);
+    }
+
+    @Override
+    public void removeWritabilityListener(Runnable listener) {
+        writabilityListeners.remove(listener);
+    }
+
+    @Override
+    public void disconnect() {
+        channel.close();
+    }
+
+    @Override
+    public MessageEncoder<M> getEncoder() {
+        return encoder;
+    }
+
+    void writabilityChanged() {
+        if (channel.isWritable()) {
+            writabilityListeners.forEach(Runnable::run);
+        }
+    }
+}
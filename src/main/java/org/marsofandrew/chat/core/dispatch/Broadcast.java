@@ -0,0 +1,101 @@
+package org.marsofandrew.chat.core.dispatch;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+
+/**
+ * Single published message shared by all mailboxes of a topic. Message is rendered at most once per encoder.
+ * Encodings are added only by the publishing thread before the broadcast is handed to a mailbox,
+ * so mailboxes may read them without synchronization.
+ *
+ * @param <M> Message type.
+ */
+public final class Broadcast<M> {
+
+    private static final int MAX_ENCODINGS = 4;
+    private static final long NO_GAP = -1;
+
+    private final String topic;
+    @Getter
+    private final Message<M> message;
+    private final long gapEnd;
+    private final MessageEncoder<M>[] encoders = newEncoders();
+    private final ByteBuf[] encodings = new ByteBuf[MAX_ENCODINGS];
+
+    public Broadcast(String topic, Message<M> message) {
+        this(topic, message, NO_GAP);
+    }
+
+    private Broadcast(String topic, Message<M> message, long gapEnd) {
+        this.topic = topic;
+        this.message = message;
+        this.gapEnd = gapEnd;
+    }
+
+    /**
+     * Stands for messages from {@code fromSequence} inclusive to {@code toSequence} exclusive which will never
+     * be delivered, mailboxes report it by {@link org.marsofandrew.chat.core.model.Subscriber#handleGap}.
+     */
+    public static <M> Broadcast<M> gap(String topic, long fromSequence, long toSequence) {
+        return new Broadcast<>(topic, new Message<>(fromSequence, null, null, null), toSequence);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M> MessageEncoder<M>[] newEncoders() {
+        return (MessageEncoder<M>[]) new MessageEncoder<?>[MAX_ENCODINGS];
+    }
+
+    public long getSequence() {
+        return message.sequence();
+    }
+
+    public boolean isGap() {
+        return gapEnd != NO_GAP;
+    }
+
+    /**
+     * @return sequence after the gap.
+     */
+    public long getGapEnd() {
+        return gapEnd;
+    }
+
+    /**
+     * Must be called only by publishing thread.
+     *
+     * @return rendered message retained for the caller or {@code null} if there is no more room for encodings.
+     */
+    ByteBuf retainEncoded(MessageEncoder<M> encoder) {
+        for (int i = 0; i < MAX_ENCODINGS; i++) {
+            if (encoders[i] == encoder) {
+                return encodings[i].retain();
+            }
+            if (encoders[i] == null) {
+                encodings[i] = encoder.encode(topic, message);
+                encoders[i] = encoder;
+                return encodings[i].retain();
+            }
+        }
+        return null;
+    }
+
+    ByteBuf encoded(MessageEncoder<M> encoder) {
+        for (int i = 0; i < MAX_ENCODINGS && encoders[i] != null; i++) {
+            if (encoders[i] == encoder) {
+                return encodings[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Releases encodings owned by the broadcast itself, mailboxes keep their own references.
+     */
+    public void release() {
+        for (int i = 0; i < MAX_ENCODINGS && encoders[i] != null; i++) {
+            encodings[i].release();
+        }
+    }
+}
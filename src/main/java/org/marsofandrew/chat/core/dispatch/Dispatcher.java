@@ -0,0 +1,74 @@
+package org.marsofandrew.chat.core.dispatch;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.Subscriber;
+import org.marsofandrew.chat.core.utils.History;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates {@link Mailbox}es and keeps counters shared by all of them.
+ */
+@RequiredArgsConstructor
+public class Dispatcher {
+
+    private final int mailboxCapacity;
+    @Getter
+    private final OverflowPolicy overflowPolicy;
+    private final long unwritableTimeoutMillis;
+
+    private final LongAdder droppedOldest = new LongAdder();
+    private final LongAdder droppedNewest = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * @param fromSequence first sequence of {@code history} to replay to the subscriber.
+     */
+    public <M> Mailbox<M> mailbox(String topic, Subscriber<M> subscriber, History<Message<M>> history,
+                                  long fromSequence) {
+        return new Mailbox<>(this, topic, subscriber, mailboxCapacity, overflowPolicy,
+                unwritableTimeoutMillis * 1_000_000, history, fromSequence);
+    }
+
+    public long getDroppedOldest() {
+        return droppedOldest.sum();
+    }
+
+    public long getDroppedNewest() {
+        return droppedNewest.sum();
+    }
+
+    public long getDroppedMessages() {
+        return getDroppedOldest() + getDroppedNewest();
+    }
+
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * Called when a message is rejected by a publish rate limit.
+     */
+    public void onThrottle() {
+        throttled.increment();
+    }
+
+    void onDropOldest() {
+        droppedOldest.increment();
+    }
+
+    void onDropNewest() {
+        droppedNewest.increment();
+    }
+
+    void onDisconnect() {
+        disconnects.increment();
+    }
+}
@@ -0,0 +1,319 @@
+package org.marsofandrew.chat.core.dispatch;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.core.logging.LogRateLimiter;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+import org.marsofandrew.chat.core.model.Subscriber;
+import org.marsofandrew.chat.core.utils.History;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of messages for single subscriber of single topic. Publishers only enqueue,
+ * messages are handled on {@link Subscriber#getExecutor()} of the target subscriber while it is writable.
+ * When subscriber doesn't keep up, {@link OverflowPolicy} decides what happens.
+ * <p>
+ * New mailbox first catches up: history is replayed in chunks from the start sequence until the sequence
+ * snapshot given to {@link #catchUp(long)}, live messages below the snapshot are dropped as duplicates.
+ * If the queue overflows during catch-up, the snapshot moves forward instead of dropping messages,
+ * so they are replayed from history as well. Messages evicted from history before they are replayed
+ * are reported by {@link Subscriber#handleGap(String, long, long)}, as well as {@link Broadcast#gap} offered
+ * by the topic. Messages dropped on overflow are reported as gaps only if
+ * {@link Subscriber#reportsDroppedMessages()}, the gap is reported before the next delivered message.
+ * <p>
+ * Messages are drained in batches and {@link Subscriber#flush()} is called once per batch.
+ *
+ * @param <M> Message type.
+ */
+@Slf4j
+public class Mailbox<M> {
+
+    private static final int DRAIN_BATCH = 64;
+    private static final long WRITABLE = Long.MIN_VALUE;
+    private static final long LIVE = Long.MIN_VALUE;
+    private static final LogRateLimiter DISCONNECT_LOG = new LogRateLimiter(1, TimeUnit.SECONDS);
+    private static final LogRateLimiter REJECTED_LOG = new LogRateLimiter(1, TimeUnit.SECONDS);
+
+    private final Dispatcher dispatcher;
+    private final String topic;
+    @Getter
+    private final Subscriber<M> target;
+    private final MessageEncoder<M> encoder;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long unwritableTimeoutNanos;
+    private final History<Message<M>> history;
+    private final boolean reportDrops;
+
+    private final Queue<Broadcast<M>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong unwritableSince = new AtomicLong(WRITABLE);
+    private final Runnable writabilityListener = this::onWritable;
+    private volatile boolean closed;
+
+    /**
+     * Sequence where catch-up ends or {@link #LIVE} after the catch-up.
+     */
+    private final AtomicLong replayEnd;
+    private volatile boolean started;
+    // accessed only by drain
+    private long cursor;
+    // next expected live sequence, lower ones are already replayed or delivered
+    private long liveFrom;
+
+    Mailbox(Dispatcher dispatcher, String topic, Subscriber<M> target, int capacity,
+            OverflowPolicy overflowPolicy, long unwritableTimeoutNanos,
+            History<Message<M>> history, long fromSequence) {
+        this.dispatcher = dispatcher;
+        this.topic = topic;
+        this.target = target;
+        this.encoder = target.getEncoder();
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.unwritableTimeoutNanos = unwritableTimeoutNanos;
+        this.history = history;
+        this.reportDrops = target.reportsDroppedMessages();
+        this.cursor = fromSequence;
+        this.replayEnd = new AtomicLong(fromSequence);
+        target.addWritabilityListener(writabilityListener);
+    }
+
+    /**
+     * Starts delivery. Must be called once, after the mailbox is visible to publishers.
+     *
+     * @param untilSequence history sequence taken after the mailbox became visible.
+     */
+    public void catchUp(long untilSequence) {
+        replayEnd.accumulateAndGet(untilSequence, Math::max);
+        started = true;
+        schedule();
+    }
+
+    /**
+     * Must be called by the thread publishing the broadcast.
+     */
+    public void offer(Broadcast<M> broadcast) {
+        if (closed) {
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.DISCONNECT && isUnwritableTooLong()) {
+            disconnect();
+            return;
+        }
+        if (size.incrementAndGet() > capacity) {
+            if (deferToHistory(broadcast.getSequence())) {
+                size.decrementAndGet();
+                schedule();
+                return;
+            }
+            if (!evictOldest()) {
+                size.decrementAndGet();
+                dispatcher.onDropNewest();
+                return;
+            }
+        }
+        if (encoder != null && !broadcast.isGap()) {
+            broadcast.retainEncoded(encoder);
+        }
+        queue.offer(broadcast);
+        if (closed) {
+            clear();
+            return;
+        }
+        schedule();
+    }
+
+    /**
+     * Stops delivery and releases queued messages.
+     */
+    public void close() {
+        closed = true;
+        target.removeWritabilityListener(writabilityListener);
+        clear();
+    }
+
+    /**
+     * During catch-up overflowing messages are not queued, the catch-up is extended to replay them from history.
+     */
+    private boolean deferToHistory(long sequence) {
+        long end;
+        while ((end = replayEnd.get()) != LIVE) {
+            if (replayEnd.compareAndSet(end, Math.max(end, sequence + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean evictOldest() {
+        if (overflowPolicy != OverflowPolicy.DROP_OLDEST) {
+            return false;
+        }
+        Broadcast<M> oldest = queue.poll();
+        if (oldest == null) {
+            return false;
+        }
+        size.decrementAndGet();
+        release(oldest);
+        dispatcher.onDropOldest();
+        return true;
+    }
+
+    private boolean isUnwritableTooLong() {
+        long now = System.nanoTime();
+        if (target.isWritable()) {
+            unwritableSince.set(WRITABLE);
+            return false;
+        }
+        unwritableSince.compareAndSet(WRITABLE, now);
+        return now - unwritableSince.get() > unwritableTimeoutNanos;
+    }
+
+    private void disconnect() {
+        if (closed) {
+            return;
+        }
+        if (DISCONNECT_LOG.tryAcquire()) {
+            log.warn("[{}] Disconnect subscriber which is unwritable for too long, {} similar disconnects suppressed",
+                    topic, DISCONNECT_LOG.drainSuppressed());
+        }
+        dispatcher.onDisconnect();
+        close();
+        target.disconnect();
+    }
+
+    private void onWritable() {
+        unwritableSince.set(WRITABLE);
+        schedule();
+    }
+
+    private void schedule() {
+        if (closed || !started || (queue.isEmpty() && replayEnd.get() == LIVE)
+                || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            target.getExecutor().execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            if (REJECTED_LOG.tryAcquire()) {
+                log.warn("[{}] Subscriber executor rejected messages, {} similar rejections suppressed",
+                        topic, REJECTED_LOG.drainSuppressed());
+            }
+            clear();
+            scheduled.set(false);
+        }
+    }
+
+    private void drain() {
+        int handled = 0;
+        while (handled < DRAIN_BATCH && !closed) {
+            if (!target.isWritable()) {
+                unwritableSince.compareAndSet(WRITABLE, System.nanoTime());
+                break;
+            }
+            long end = replayEnd.get();
+            if (end != LIVE) {
+                handled += replay(end, DRAIN_BATCH - handled);
+                continue;
+            }
+            Broadcast<M> broadcast = queue.poll();
+            if (broadcast == null) {
+                break;
+            }
+            size.decrementAndGet();
+            if (broadcast.getSequence() < liveFrom) {
+                release(broadcast);
+                continue;
+            }
+            if (reportDrops && broadcast.getSequence() > liveFrom) {
+                // sequences between are dropped on overflow
+                target.handleGap(topic, liveFrom, broadcast.getSequence());
+            }
+            if (broadcast.isGap()) {
+                target.handleGap(topic, broadcast.getSequence(), broadcast.getGapEnd());
+                liveFrom = broadcast.getGapEnd();
+            } else {
+                deliver(broadcast);
+                liveFrom = broadcast.getSequence() + 1;
+            }
+            handled++;
+        }
+        if (handled > 0) {
+            target.flush();
+        }
+        scheduled.set(false);
+        if (target.isWritable()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Replays next chunk of history or switches to live delivery when the catch-up is complete.
+     *
+     * @return number of handled sequences.
+     */
+    private int replay(long end, int maxCount) {
+        if (cursor >= end) {
+            if (replayEnd.compareAndSet(end, LIVE)) {
+                liveFrom = end;
+            }
+            return 0;
+        }
+        long from = cursor;
+        long next = history.read(from, (int) Math.min(maxCount, end - from), (sequence, message) -> {
+            if (sequence >= end) {
+                return;
+            }
+            skipTo(sequence);
+            target.handleMessage(topic, message);
+            cursor = sequence + 1;
+        });
+        skipTo(next > from ? Math.min(next, end) : end);
+        return (int) Math.min(maxCount, cursor - from);
+    }
+
+    private void skipTo(long sequence) {
+        if (sequence > cursor) {
+            target.handleGap(topic, cursor, sequence);
+            cursor = sequence;
+        }
+    }
+
+    private void deliver(Broadcast<M> broadcast) {
+        ByteBuf encoded = encoder == null ? null : broadcast.encoded(encoder);
+        if (encoded == null) {
+            target.handleMessage(topic, broadcast.getMessage());
+            return;
+        }
+        try {
+            target.handleEncoded(topic, broadcast.getMessage(), encoded.retainedDuplicate());
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private void clear() {
+        Broadcast<M> broadcast;
+        while ((broadcast = queue.poll()) != null) {
+            size.decrementAndGet();
+            release(broadcast);
+        }
+    }
+
+    private void release(Broadcast<M> broadcast) {
+        ByteBuf encoded = encoder == null ? null : broadcast.encoded(encoder);
+        if (encoded != null) {
+            encoded.release();
+        }
+    }
+}
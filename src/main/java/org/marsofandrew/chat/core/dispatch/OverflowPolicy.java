@@ -0,0 +1,19 @@
+package org.marsofandrew.chat.core.dispatch;
+
+/**
+ * What a {@link Mailbox} does when its subscriber can't keep up with the topic.
+ */
+public enum OverflowPolicy {
+    /**
+     * Evicts the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Drops the new message.
+     */
+    DROP_NEWEST,
+    /**
+     * Drops new messages and disconnects subscriber which stays unwritable longer than the configured timeout.
+     */
+    DISCONNECT
+}
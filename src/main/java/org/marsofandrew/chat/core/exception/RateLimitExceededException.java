@@ -0,0 +1,11 @@
+package org.marsofandrew.chat.core.exception;
+
+/**
+ * Thrown when a message is rejected because the client or the topic publishes too fast.
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+    public RateLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package org.marsofandrew.chat.core.exception;
+
+/**
+ * Thrown when a topic is used after it was evicted from {@link org.marsofandrew.chat.core.TopicService}.
+ */
+public class TopicClosedException extends RuntimeException {
+
+    public TopicClosedException(String topic) {
+        super(String.format("topic %s is closed", topic));
+    }
+}
@@ -0,0 +1,250 @@
+package org.marsofandrew.chat.core.logging;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log4j appender which passes events to attached appenders on its own thread. Logging thread only enqueues
+ * the event to a bounded ring buffer, when the buffer is full the event is dropped and counted instead of waiting.
+ * Number of dropped events is logged once the buffer is drained.
+ * Unlike other appenders, logging threads don't take the appender monitor. Log4j still synchronizes on the logger
+ * in {@code Category.callAppenders}, so threads logging through the same logger take turns to enqueue.
+ */
+public class BoundedAsyncAppender extends AppenderSkeleton implements AppenderAttachable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+    private final AppenderAttachableImpl appenders = new AppenderAttachableImpl();
+    private final AtomicLong dropped = new AtomicLong();
+    // slot of an event is claimed by advancing tail, the worker clears the slot and advances head
+    private volatile AtomicReferenceArray<LoggingEvent> buffer = new AtomicReferenceArray<>(DEFAULT_BUFFER_SIZE);
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final Thread worker;
+    private volatile boolean waiting;
+    private volatile boolean stopped;
+
+    @Getter
+    @Setter
+    private boolean locationInfo;
+
+    public BoundedAsyncAppender() {
+        worker = new Thread(this::dispatch, "async-log-appender");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public int getBufferSize() {
+        return buffer.length();
+    }
+
+    /**
+     * Must be called before the appender is used, e.g. by the log4j configuration.
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException(String.format("bufferSize should be positive, but was %s", bufferSize));
+        }
+        buffer = new AtomicReferenceArray<>(bufferSize);
+    }
+
+    /**
+     * @return number of events dropped by all appenders of this type.
+     */
+    public static long droppedEvents() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * Same as {@link AppenderSkeleton#doAppend(LoggingEvent)}, but without the appender monitor.
+     * Threshold and filters are expected to be configured before the appender is used.
+     */
+    @Override
+    public void doAppend(LoggingEvent event) {
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+        for (Filter filter = getFirstFilter(); filter != null; filter = filter.getNext()) {
+            int decision = filter.decide(event);
+            if (decision == Filter.DENY) {
+                return;
+            }
+            if (decision == Filter.ACCEPT) {
+                break;
+            }
+        }
+        append(event);
+    }
+
+    @Override
+    protected void append(LoggingEvent event) {
+        if (stopped) {
+            return;
+        }
+        var slots = buffer;
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head >= slots.length()) {
+                dropped.incrementAndGet();
+                DROPPED.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        // capture state which belongs to the logging thread
+        event.getNDC();
+        event.getThreadName();
+        event.getMDCCopy();
+        event.getRenderedMessage();
+        if (locationInfo) {
+            event.getLocationInformation();
+        }
+        slots.set((int) (claimed % slots.length()), event);
+        if (waiting) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void dispatch() {
+        long reported = 0;
+        while (true) {
+            LoggingEvent event = poll();
+            if (event != null) {
+                appendLoop(event);
+                continue;
+            }
+            long current = dropped.get();
+            if (current != reported) {
+                appendLoop(new LoggingEvent(getClass().getName(), Logger.getLogger(getClass()),
+                        Level.WARN, (current - reported) + " logging events were dropped", null));
+                reported = current;
+                continue;
+            }
+            if (stopped) {
+                return;
+            }
+            waiting = true;
+            if (peek() == null && !stopped) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+
+    /**
+     * Called only by the worker. Slot claimed by a logging thread stays empty until the event is stored,
+     * the worker waits for it then.
+     */
+    private LoggingEvent poll() {
+        LoggingEvent event = peek();
+        if (event != null) {
+            var slots = buffer;
+            slots.set((int) (head % slots.length()), null);
+            head = head + 1;
+        }
+        return event;
+    }
+
+    private LoggingEvent peek() {
+        var slots = buffer;
+        return slots.get((int) (head % slots.length()));
+    }
+
+    private void appendLoop(LoggingEvent event) {
+        synchronized (appenders) {
+            appenders.appendLoopOnAppenders(event);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (appenders) {
+            appenders.removeAllAppenders();
+        }
+        closed = true;
+    }
+
+    @Override
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    @Override
+    public void addAppender(Appender newAppender) {
+        synchronized (appenders) {
+            appenders.addAppender(newAppender);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Enumeration<Appender> getAllAppenders() {
+        synchronized (appenders) {
+            return appenders.getAllAppenders();
+        }
+    }
+
+    @Override
+    public Appender getAppender(String name) {
+        synchronized (appenders) {
+            return appenders.getAppender(name);
+        }
+    }
+
+    @Override
+    public boolean isAttached(Appender appender) {
+        synchronized (appenders) {
+            return appenders.isAttached(appender);
+        }
+    }
+
+    @Override
+    public void removeAllAppenders() {
+        synchronized (appenders) {
+            appenders.removeAllAppenders();
+        }
+    }
+
+    @Override
+    public void removeAppender(Appender appender) {
+        synchronized (appenders) {
+            appenders.removeAppender(appender);
+        }
+    }
+
+    @Override
+    public void removeAppender(String name) {
+        synchronized (appenders) {
+            appenders.removeAppender(name);
+        }
+    }
+}
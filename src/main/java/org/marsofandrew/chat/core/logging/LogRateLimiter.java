@@ -0,0 +1,51 @@
+package org.marsofandrew.chat.core.logging;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lets at most one log statement of a hot call site through per interval, other ones are counted as suppressed.
+ * <pre>{@code
+ * if (LIMITER.tryAcquire()) {
+ *     log.warn("Something happened, {} similar events suppressed", LIMITER.drainSuppressed());
+ * }
+ * }</pre>
+ */
+public class LogRateLimiter {
+
+    private final long intervalNanos;
+    private final LongSupplier nanoClock;
+    private final AtomicLong nextAllowed;
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public LogRateLimiter(long interval, TimeUnit unit) {
+        this(interval, unit, System::nanoTime);
+    }
+
+    LogRateLimiter(long interval, TimeUnit unit, LongSupplier nanoClock) {
+        this.intervalNanos = unit.toNanos(interval);
+        this.nanoClock = nanoClock;
+        this.nextAllowed = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    /**
+     * @return {@code true} if the caller may log now.
+     */
+    public boolean tryAcquire() {
+        long now = nanoClock.getAsLong();
+        long next = nextAllowed.get();
+        if (now - next >= 0 && nextAllowed.compareAndSet(next, now + intervalNanos)) {
+            return true;
+        }
+        suppressed.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return number of suppressed log statements since the previous call.
+     */
+    public long drainSuppressed() {
+        return suppressed.getAndSet(0);
+    }
+}
@@ -0,0 +1,148 @@
+package org.marsofandrew.chat.core.metrics;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process registry of server, event loop and topic metrics. Metrics are read on demand,
+ * so registry adds no work to the publish path. Registered metrics can be published over JMX.
+ */
+@Slf4j
+public class MetricsRegistry {
+
+    private static final String DOMAIN = "org.marsofandrew.chat";
+
+    private final Map<String, LongSupplier> server = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<String, LongSupplier>> eventLoops = new ConcurrentSkipListMap<>();
+    private final Map<String, TopicMetrics> topics = new ConcurrentHashMap<>();
+    private volatile MBeanServer mBeanServer;
+
+    public void gauge(String name, LongSupplier gauge) {
+        server.put(name, gauge);
+    }
+
+    public void register(String topic, TopicMetrics metrics) {
+        topics.put(topic, metrics);
+        if (mBeanServer != null) {
+            registerMBean(topicName(topic), new Gauges("topic " + topic, metrics.gauges()));
+        }
+    }
+
+    public void unregister(String topic) {
+        if (topics.remove(topic) != null && mBeanServer != null) {
+            try {
+                mBeanServer.unregisterMBean(topicName(topic));
+            } catch (JMException e) {
+                log.warn("Couldn't unregister metrics of topic {}", topic, e);
+            }
+        }
+    }
+
+    /**
+     * Registers pending tasks and outbound bytes of every event loop of the group.
+     *
+     * @param channels channels served by the group, used to sum outbound bytes per event loop.
+     */
+    public void eventLoops(String name, EventExecutorGroup group, ChannelGroup channels) {
+        int index = 0;
+        for (EventExecutor executor : group) {
+            Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+            if (executor instanceof SingleThreadEventExecutor singleThread) {
+                gauges.put("pendingTasks", singleThread::pendingTasks);
+            }
+            gauges.put("outboundBytes", () -> outboundBytes(executor, channels));
+            String loopName = name + "-" + index++;
+            eventLoops.put(loopName, gauges);
+            if (mBeanServer != null) {
+                registerMBean(eventLoopName(loopName), new Gauges("event loop " + loopName, gauges));
+            }
+        }
+    }
+
+    public synchronized void exposeOverJmx() {
+        if (mBeanServer != null) {
+            return;
+        }
+        mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        registerMBean(objectName("type=Server"), new Gauges("chat server", server));
+        eventLoops.forEach((name, gauges) -> registerMBean(eventLoopName(name), new Gauges("event loop " + name, gauges)));
+        topics.forEach((topic, metrics) -> registerMBean(topicName(topic), new Gauges("topic " + topic, metrics.gauges())));
+    }
+
+    /**
+     * @return server and event loop metrics, one "name=value" per line.
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        server.forEach((name, gauge) -> lines.add(String.format("%s=%s", name, gauge.getAsLong())));
+        lines.add(String.format("topics=%s", topics.size()));
+        eventLoops.forEach((loop, gauges) -> gauges.forEach((name, gauge) ->
+                lines.add(String.format("%s.%s=%s", loop, name, gauge.getAsLong()))));
+        return lines;
+    }
+
+    /**
+     * @return metrics of the topic, one "name=value" per line, or empty list if topic is unknown.
+     */
+    public List<String> report(String topic) {
+        TopicMetrics metrics = topics.get(topic);
+        if (metrics == null) {
+            return List.of();
+        }
+        List<String> lines = new ArrayList<>();
+        metrics.gauges().forEach((name, gauge) -> lines.add(String.format("%s=%s", name, gauge.getAsLong())));
+        return lines;
+    }
+
+    private static long outboundBytes(EventExecutor executor, ChannelGroup channels) {
+        long bytes = 0;
+        for (Channel channel : channels) {
+            if (channel.eventLoop() == executor) {
+                ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+                bytes += buffer == null ? 0 : buffer.totalPendingWriteBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private void registerMBean(ObjectName name, Gauges gauges) {
+        try {
+            mBeanServer.registerMBean(gauges, name);
+        } catch (JMException e) {
+            log.warn("Couldn't register {} over JMX", name, e);
+        }
+    }
+
+    private static ObjectName topicName(String topic) {
+        return objectName("type=Topic,name=" + ObjectName.quote(topic));
+    }
+
+    private static ObjectName eventLoopName(String loop) {
+        return objectName("type=EventLoop,name=" + ObjectName.quote(loop));
+    }
+
+    private static ObjectName objectName(String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
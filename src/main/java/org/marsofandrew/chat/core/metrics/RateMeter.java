@@ -0,0 +1,41 @@
+package org.marsofandrew.chat.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events with a striped counter. Rate is computed by readers, at most once per second.
+ */
+public class RateMeter {
+
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder count = new LongAdder();
+    private volatile Sample last = new Sample(System.nanoTime(), 0, 0);
+
+    public void mark() {
+        count.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return events per second during the last completed interval.
+     */
+    public long getRate() {
+        Sample sample = last;
+        long now = System.nanoTime();
+        if (now - sample.time() < INTERVAL_NANOS) {
+            return sample.rate();
+        }
+        long current = count.sum();
+        long rate = (current - sample.count()) * INTERVAL_NANOS / (now - sample.time());
+        last = new Sample(now, current, rate);
+        return rate;
+    }
+
+    private record Sample(long time, long count, long rate) {
+    }
+}
@@ -0,0 +1,49 @@
+package org.marsofandrew.chat.core.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters of single topic. Updates are lock-free and striped, so publishers on different threads don't contend.
+ */
+public class TopicMetrics {
+
+    private final RateMeter publishes = new RateMeter();
+    private final LongAdder fanOutNanos = new LongAdder();
+    private final LongAccumulator fanOutMaxNanos = new LongAccumulator(Math::max, 0);
+    private final LongSupplier historyMessages;
+    private final LongSupplier historyBytes;
+    private final LongSupplier subscribers;
+
+    public TopicMetrics(LongSupplier historyMessages, LongSupplier historyBytes, LongSupplier subscribers) {
+        this.historyMessages = historyMessages;
+        this.historyBytes = historyBytes;
+        this.subscribers = subscribers;
+    }
+
+    public void onPublish(long fanOutNanos) {
+        publishes.mark();
+        this.fanOutNanos.add(fanOutNanos);
+        fanOutMaxNanos.accumulate(fanOutNanos);
+    }
+
+    public Map<String, LongSupplier> gauges() {
+        Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+        gauges.put("publishes", publishes::getCount);
+        gauges.put("publishRate", publishes::getRate);
+        gauges.put("fanOutMeanNanos", this::fanOutMeanNanos);
+        gauges.put("fanOutMaxNanos", fanOutMaxNanos::get);
+        gauges.put("historyMessages", historyMessages);
+        gauges.put("historyBytes", historyBytes);
+        gauges.put("subscribers", subscribers);
+        return gauges;
+    }
+
+    private long fanOutMeanNanos() {
+        long count = publishes.getCount();
+        return count == 0 ? 0 : fanOutNanos.sum() / count;
+    }
+}
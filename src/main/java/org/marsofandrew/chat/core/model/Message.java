@@ -2,5 +2,27 @@ package org.marsofandrew.chat.core.model;
 
 import java.time.Instant;
 
-public record Message<M>(Instant timestamp, M message, String sender) {
+/**
+ * @param sequence position of the message in its topic, {@link #NO_SEQUENCE} if the message isn't published.
+ */
+public record Message<M>(long sequence, Instant timestamp, M message, String sender) {
+
+    public static final long NO_SEQUENCE = -1;
+
+    private static final int OVERHEAD = 104;
+
+    public Message(Instant timestamp, M message, String sender) {
+        this(NO_SEQUENCE, timestamp, message, sender);
+    }
+
+    /**
+     * @return rough amount of heap bytes retained by the message.
+     */
+    public long estimatedSize() {
+        long size = OVERHEAD + 2L * sender.length();
+        if (message instanceof CharSequence text) {
+            size += 2L * text.length();
+        }
+        return size;
+    }
 }
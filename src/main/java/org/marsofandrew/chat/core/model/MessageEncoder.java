@@ -0,0 +1,13 @@
+package org.marsofandrew.chat.core.model;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Renders message into bytes which are ready to be written to a channel.
+ * Encoder instances are compared by identity, so subscribers sharing an encoder share the rendered bytes.
+ *
+ * @param <M> Message type.
+ */
+public interface MessageEncoder<M> {
+    ByteBuf encode(String topic, Message<M> message);
+}
@@ -1,7 +1,83 @@
 package org.marsofandrew.chat.core.model;
 
+import io.netty.buffer.ByteBuf;
+
 import java.time.Instant;
+import java.util.concurrent.Executor;
 
 public interface Subscriber<M> {
     void handleMessage(String topic, String sender, M message, Instant instant);
+
+    default void handleMessage(String topic, Message<M> message) {
+        handleMessage(topic, message.sender(), message.message(), message.timestamp());
+    }
+
+    /**
+     * Handles message already rendered by {@link #getEncoder()}. Subscriber owns {@code encoded} and has to release it.
+     */
+    default void handleEncoded(String topic, Message<M> message, ByteBuf encoded) {
+        try {
+            handleMessage(topic, message);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * Called instead of messages from {@code fromSequence} inclusive to {@code toSequence} exclusive
+     * which are already evicted from the topic history.
+     */
+    default void handleGap(String topic, long fromSequence, long toSequence) {
+    }
+
+    /**
+     * @return {@code true} if messages dropped because the subscriber doesn't keep up have to be reported
+     * by {@link #handleGap(String, long, long)} as well, e.g. when the subscriber feeds a replica.
+     */
+    default boolean reportsDroppedMessages() {
+        return false;
+    }
+
+    /**
+     * Sends out messages handled so far. Messages may be buffered by the subscriber until it is called,
+     * it is called on {@link #getExecutor()} once per batch of handled messages.
+     */
+    default void flush() {
+    }
+
+    /**
+     * @return executor where messages for this subscriber should be handled.
+     */
+    default Executor getExecutor() {
+        return Runnable::run;
+    }
+
+    /**
+     * @return {@code false} if subscriber can't accept more messages right now.
+     */
+    default boolean isWritable() {
+        return true;
+    }
+
+    /**
+     * Registers listener which is called when subscriber becomes writable again.
+     */
+    default void addWritabilityListener(Runnable listener) {
+    }
+
+    default void removeWritabilityListener(Runnable listener) {
+    }
+
+    /**
+     * Called when subscriber is too slow to keep receiving messages.
+     */
+    default void disconnect() {
+    }
+
+    /**
+     * @return encoder to render messages once for all subscribers sharing it, {@code null} to get raw messages.
+     */
+    default MessageEncoder<M> getEncoder() {
+        return null;
+    }
 }
@@ -0,0 +1,301 @@
+package org.marsofandrew.chat.core.offheap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.marsofandrew.chat.core.HistoryFactory;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+import org.marsofandrew.chat.core.utils.History;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+
+/**
+ * History keeping at most {@code capacity} last messages packed into pooled direct memory slabs,
+ * so retained messages are not traced by GC. Messages are decoded only when they are read.
+ * <p>
+ * Entry layout is {@code [int length][long sequence][long epoch millis][short sender length][sender][payload]}.
+ * Entries are located by sequence through fixed arrays stamped like in
+ * {@link org.marsofandrew.chat.core.utils.RingBufferHistory}. Slab is released as soon as all its entries
+ * are evicted, readers hold their own reference to the slab while they decode an entry.
+ * <p>
+ * History expects a single writer, readers never block.
+ *
+ * @param <M> Message type.
+ */
+public class OffHeapHistory<M> implements History<Message<M>> {
+
+    public static final int DEFAULT_SLAB_BYTES = 64 * 1024;
+
+    private static final int MIN_SLAB_BYTES = 1024;
+    private static final int HEADER_BYTES = 4 + 8 + 8 + 2;
+    private static final int SEQUENCE_OFFSET = 4;
+    private static final int TIMESTAMP_OFFSET = 12;
+    private static final int SENDER_OFFSET = 20;
+    private static final long EMPTY = -1;
+
+    private final int capacity;
+    private final int slabBytes;
+    private final ByteBufAllocator allocator;
+    private final MessageCodec<M> codec;
+
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray slabNumbers;
+    private final AtomicIntegerArray offsets;
+    private final AtomicReferenceArray<Slab> slabs;
+
+    // changed only by the writer
+    private Slab current;
+    private long nextSlabNumber;
+    private volatile long first;
+    private volatile long published;
+    private volatile long bytes;
+
+    public OffHeapHistory(int capacity, MessageCodec<M> codec) {
+        this(capacity, codec, PooledByteBufAllocator.DEFAULT, DEFAULT_SLAB_BYTES);
+    }
+
+    /**
+     * @param slabBytes size of a slab, a new history starts with smaller slabs and doubles them up to this size.
+     */
+    public OffHeapHistory(int capacity, MessageCodec<M> codec, ByteBufAllocator allocator, int slabBytes) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(String.format("capacity should be positive, but was %s", capacity));
+        }
+        this.capacity = capacity;
+        this.slabBytes = Math.max(MIN_SLAB_BYTES, slabBytes);
+        this.allocator = allocator;
+        this.codec = codec;
+        this.sequences = new AtomicLongArray(capacity);
+        this.slabNumbers = new AtomicLongArray(capacity);
+        this.offsets = new AtomicIntegerArray(capacity);
+        // every slab but the current one holds at least one retained entry
+        this.slabs = new AtomicReferenceArray<>(capacity + 1);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * @return factory creating an off-heap history per topic.
+     */
+    public static <M> HistoryFactory<M> factory(MessageCodec<M> codec, int slabBytes) {
+        return (topic, messageLimit) ->
+                new OffHeapHistory<>(messageLimit, codec, PooledByteBufAllocator.DEFAULT, slabBytes);
+    }
+
+    @Override
+    public long add(Message<M> message) {
+        long sequence = published;
+        store(sequence, message);
+        return sequence;
+    }
+
+    @Override
+    public Message<M> append(LongFunction<? extends Message<M>> factory) {
+        Message<M> message = factory.apply(published);
+        store(published, message);
+        return message;
+    }
+
+    @Override
+    public Message<M> get(long sequence) {
+        if (sequence < first || sequence >= published) {
+            return null;
+        }
+        int index = index(sequence);
+        if (sequences.get(index) != sequence) {
+            return null;
+        }
+        long slabNumber = slabNumbers.get(index);
+        int offset = offsets.get(index);
+        Slab slab = slabs.get(slabIndex(slabNumber));
+        if (sequences.get(index) != sequence || slab == null || slab.number != slabNumber || !slab.retain()) {
+            return null;
+        }
+        try {
+            ByteBuf buf = slab.buf;
+            if (buf.getLong(offset + SEQUENCE_OFFSET) != sequence) {
+                return null;
+            }
+            int length = buf.getInt(offset);
+            int senderLength = buf.getShort(offset + SENDER_OFFSET) & 0xFFFF;
+            int senderStart = offset + HEADER_BYTES;
+            String sender = buf.toString(senderStart, senderLength, StandardCharsets.UTF_8);
+            byte[] payload = new byte[length - HEADER_BYTES - senderLength];
+            buf.getBytes(senderStart + senderLength, payload);
+            return new Message<>(sequence, Instant.ofEpochMilli(buf.getLong(offset + TIMESTAMP_OFFSET)),
+                    codec.decode(payload), sender);
+        } finally {
+            slab.release();
+        }
+    }
+
+    @Override
+    public long firstSequence() {
+        return first;
+    }
+
+    @Override
+    public long nextSequence() {
+        return published;
+    }
+
+    /**
+     * @return bytes of retained entries, slabs may hold up to one slab more.
+     */
+    @Override
+    public long estimatedBytes() {
+        return bytes;
+    }
+
+    /**
+     * Evicts all retained messages, because entries are expected to have consecutive sequences.
+     */
+    @Override
+    public void skipTo(long sequence) {
+        if (sequence < published) {
+            throw new IllegalArgumentException(String.format("Can't skip back from %s to %s", published, sequence));
+        }
+        if (sequence == published) {
+            return;
+        }
+        while (capacity > 0 && first < published) {
+            evictOldest();
+        }
+        first = sequence;
+        published = sequence;
+    }
+
+    /**
+     * Releases all slabs.
+     */
+    @Override
+    public void close() {
+        first = published;
+        for (int i = 0; i < slabs.length(); i++) {
+            Slab slab = slabs.getAndSet(i, null);
+            if (slab != null) {
+                slab.release();
+            }
+        }
+        current = null;
+        bytes = 0;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the sender is longer than 65535 bytes, nothing is stored then.
+     */
+    private void store(long sequence, Message<M> message) {
+        int senderLength = ByteBufUtil.utf8Bytes(message.sender());
+        if (senderLength > 0xFFFF) {
+            throw new IllegalArgumentException(String.format("sender of %s bytes is too long", senderLength));
+        }
+        if (capacity == 0) {
+            first = sequence + 1;
+            published = sequence + 1;
+            return;
+        }
+        byte[] payload = codec.encode(message.message());
+        if (sequence - first == capacity) {
+            evictOldest();
+        }
+        int length = HEADER_BYTES + senderLength + payload.length;
+        Slab slab = slabFor(length);
+        ByteBuf buf = slab.buf;
+        int offset = buf.writerIndex();
+        buf.writeInt(length);
+        buf.writeLong(sequence);
+        buf.writeLong(message.timestamp().toEpochMilli());
+        buf.writeShort(senderLength);
+        ByteBufUtil.writeUtf8(buf, message.sender());
+        buf.writeBytes(payload);
+        slab.entries++;
+
+        int index = index(sequence);
+        sequences.set(index, EMPTY);
+        slabNumbers.set(index, slab.number);
+        offsets.set(index, offset);
+        sequences.set(index, sequence);
+        bytes += length;
+        published = sequence + 1;
+    }
+
+    private void evictOldest() {
+        long sequence = first;
+        int index = index(sequence);
+        Slab slab = slabs.get(slabIndex(slabNumbers.get(index)));
+        first = sequence + 1;
+        bytes -= slab.buf.getInt(offsets.get(index));
+        if (--slab.entries == 0 && slab != current) {
+            releaseSlab(slab);
+        }
+    }
+
+    private Slab slabFor(int length) {
+        if (current != null && current.buf.capacity() - current.buf.writerIndex() >= length) {
+            return current;
+        }
+        int size = current == null ? MIN_SLAB_BYTES : Math.min(slabBytes, current.buf.capacity() * 2);
+        if (current != null && current.entries == 0) {
+            releaseSlab(current);
+        }
+        size = Math.max(size, length);
+        current = new Slab(nextSlabNumber++, allocator.directBuffer(size, size));
+        slabs.set(slabIndex(current.number), current);
+        return current;
+    }
+
+    private void releaseSlab(Slab slab) {
+        slabs.compareAndSet(slabIndex(slab.number), slab, null);
+        slab.release();
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    private int slabIndex(long slabNumber) {
+        return (int) (slabNumber % slabs.length());
+    }
+
+    /**
+     * Slab is never reused, so unlike a pooled {@link ByteBuf} it can't be retained after its final release.
+     */
+    private static final class Slab {
+        final long number;
+        final ByteBuf buf;
+        final AtomicInteger references = new AtomicInteger(1);
+        // changed only by the writer
+        int entries;
+
+        Slab(long number, ByteBuf buf) {
+            this.number = number;
+            this.buf = buf;
+        }
+
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                buf.release();
+            }
+        }
+    }
+}
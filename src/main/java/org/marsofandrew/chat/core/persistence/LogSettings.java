@@ -0,0 +1,47 @@
+package org.marsofandrew.chat.core.persistence;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of {@link SegmentedLog}.
+ */
+@Getter
+@Builder
+public class LogSettings {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_RETENTION_BYTES = 256L * 1024 * 1024;
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * Root directory, every topic gets its own subdirectory.
+     */
+    @NonNull
+    private final Path directory;
+
+    @Builder.Default
+    private final int segmentBytes = DEFAULT_SEGMENT_BYTES;
+
+    /**
+     * One index entry is added per this amount of bytes of records.
+     */
+    @Builder.Default
+    private final int indexIntervalBytes = 4096;
+
+    /**
+     * Oldest segments are deleted when topic log grows over this size.
+     */
+    @Builder.Default
+    private final long retentionBytes = DEFAULT_RETENTION_BYTES;
+
+    /**
+     * Segments whose newest record is older than this are deleted.
+     */
+    @Builder.Default
+    private final long retentionMillis = DEFAULT_RETENTION_MILLIS;
+}
@@ -0,0 +1,27 @@
+package org.marsofandrew.chat.core.persistence;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts message payloads to bytes and back for persistence.
+ *
+ * @param <M> Message type.
+ */
+public interface MessageCodec<M> {
+
+    MessageCodec<String> UTF_8 = new MessageCodec<>() {
+        @Override
+        public byte[] encode(String message) {
+            return message.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    byte[] encode(M message);
+
+    M decode(byte[] bytes);
+}
@@ -0,0 +1,138 @@
+package org.marsofandrew.chat.core.persistence;
+
+import org.marsofandrew.chat.core.HistoryFactory;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.utils.History;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Topic history stored in a {@link SegmentedLog}. Messages are decoded only while they are read,
+ * so history may be much larger than the heap.
+ *
+ * @param <M> Message type.
+ */
+public class PersistentHistory<M> implements History<Message<M>> {
+
+    private final SegmentedLog log;
+    private final MessageCodec<M> codec;
+
+    public PersistentHistory(SegmentedLog log, MessageCodec<M> codec) {
+        this.log = log;
+        this.codec = codec;
+    }
+
+    /**
+     * @return factory creating a log per topic in subdirectories of {@link LogSettings#getDirectory()}.
+     */
+    public static <M> HistoryFactory<M> factory(LogSettings settings, MessageCodec<M> codec) {
+        return new HistoryFactory<>() {
+            @Override
+            public History<Message<M>> create(String topic, int messageLimit) {
+                try {
+                    return new PersistentHistory<>(
+                            SegmentedLog.open(settings.getDirectory().resolve(encode(topic)), settings), codec);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public Collection<String> existingTopics() {
+                if (!Files.isDirectory(settings.getDirectory())) {
+                    return List.of();
+                }
+                try (Stream<Path> list = Files.list(settings.getDirectory())) {
+                    return list.filter(Files::isDirectory)
+                            .map(directory -> URLDecoder.decode(directory.getFileName().toString(), StandardCharsets.UTF_8))
+                            .toList();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public long add(Message<M> message) {
+        return log.append(message.timestamp().toEpochMilli(), message.sender(), codec.encode(message.message()));
+    }
+
+    @Override
+    public Message<M> append(LongFunction<? extends Message<M>> factory) {
+        // the log appends under its own monitor, so the sequence can't change before add
+        synchronized (log) {
+            Message<M> message = factory.apply(log.nextSequence());
+            add(message);
+            return message;
+        }
+    }
+
+    @Override
+    public void skipTo(long sequence) {
+        log.skipTo(sequence);
+    }
+
+    @Override
+    public Message<M> get(long sequence) {
+        Object[] found = new Object[1];
+        log.read(sequence, 1, (recordSequence, timestamp, sender, payload) -> {
+            if (recordSequence == sequence) {
+                found[0] = toMessage(recordSequence, timestamp, sender, payload);
+            }
+        });
+        @SuppressWarnings("unchecked")
+        Message<M> message = (Message<M>) found[0];
+        return message;
+    }
+
+    @Override
+    public long firstSequence() {
+        return log.firstSequence();
+    }
+
+    @Override
+    public long nextSequence() {
+        return log.nextSequence();
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, nextSequence() - firstSequence());
+    }
+
+    @Override
+    public long read(long fromSequence, int maxCount, SequencedConsumer<? super Message<M>> consumer) {
+        return log.read(fromSequence, maxCount, (sequence, timestamp, sender, payload) ->
+                consumer.accept(sequence, toMessage(sequence, timestamp, sender, payload)));
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return log.sizeBytes();
+    }
+
+    @Override
+    public void close() {
+        log.close();
+    }
+
+    private Message<M> toMessage(long sequence, long timestamp, String sender, byte[] payload) {
+        return new Message<>(sequence, Instant.ofEpochMilli(timestamp), codec.decode(payload), sender);
+    }
+
+    private static String encode(String topic) {
+        return URLEncoder.encode(topic, StandardCharsets.UTF_8).replace(".", "%2E");
+    }
+}
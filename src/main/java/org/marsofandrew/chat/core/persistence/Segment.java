@@ -0,0 +1,255 @@
+package org.marsofandrew.chat.core.persistence;
+
+import io.netty.util.internal.PlatformDependent;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Memory-mapped file holding records with consecutive sequences starting from {@link #getBaseSequence()}.
+ * <p>
+ * Record layout: {@code int bodyLength, int crc32c(body), body}, where body is
+ * {@code long sequence, long timestampMillis, short senderLength, sender, payload}.
+ * Zero length marks the end of written records.
+ */
+@Slf4j
+final class Segment {
+
+    static final int HEADER_BYTES = Integer.BYTES * 2;
+    static final int FIXED_BODY_BYTES = Long.BYTES * 2 + Short.BYTES;
+    static final int MAX_SENDER_BYTES = 0xffff;
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    @Getter
+    private final long baseSequence;
+    private final Path logFile;
+    private final Path indexFile;
+    private final MappedByteBuffer buffer;
+    private final SparseIndex index = new SparseIndex();
+    private final int indexIntervalBytes;
+
+    private volatile int position;
+    @Getter
+    private volatile long lastTimestamp;
+    private long nextSequence;
+    private int lastIndexedPosition = -1;
+
+    private Segment(long baseSequence, Path logFile, MappedByteBuffer buffer, int indexIntervalBytes) {
+        this.baseSequence = baseSequence;
+        this.logFile = logFile;
+        this.indexFile = indexFile(logFile);
+        this.buffer = buffer;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.nextSequence = baseSequence;
+    }
+
+    static Segment create(Path directory, long baseSequence, LogSettings settings) throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", baseSequence, LOG_SUFFIX));
+        return new Segment(baseSequence, file, map(file, settings.getSegmentBytes()), settings.getIndexIntervalBytes());
+    }
+
+    /**
+     * Opens existing segment. Sealed segments load their index file, others are scanned and
+     * cut at the first torn or corrupted record.
+     */
+    static Segment open(Path file, LogSettings settings) throws IOException {
+        long baseSequence = Long.parseLong(file.getFileName().toString().replace(LOG_SUFFIX, ""));
+        var segment = new Segment(baseSequence, file, map(file, (int) Files.size(file)),
+                settings.getIndexIntervalBytes());
+        if (!segment.loadIndex()) {
+            segment.recover();
+        }
+        return segment;
+    }
+
+    static boolean isSegment(Path file) {
+        return file.getFileName().toString().endsWith(LOG_SUFFIX);
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    long getNextSequence() {
+        return nextSequence;
+    }
+
+    boolean fits(int recordBytes) {
+        return buffer.capacity() - position >= recordBytes;
+    }
+
+    /**
+     * Must be called only by the log writer.
+     *
+     * @throws IllegalArgumentException if the sender is longer than {@link #MAX_SENDER_BYTES}.
+     */
+    void append(long sequence, long timestamp, byte[] sender, byte[] payload) {
+        if (sender.length > MAX_SENDER_BYTES) {
+            throw new IllegalArgumentException(String.format("sender of %s bytes is too long", sender.length));
+        }
+        int start = position;
+        int bodyLength = FIXED_BODY_BYTES + sender.length + payload.length;
+        ByteBuffer view = buffer.duplicate();
+        view.position(start + HEADER_BYTES);
+        view.putLong(sequence).putLong(timestamp).putShort((short) sender.length).put(sender).put(payload);
+        int end = view.position();
+        if (end + Integer.BYTES <= buffer.capacity()) {
+            view.putInt(0);
+        }
+        buffer.putInt(start + Integer.BYTES, crc(start + HEADER_BYTES, bodyLength));
+        buffer.putInt(start, bodyLength);
+        if (lastIndexedPosition < 0 || start - lastIndexedPosition >= indexIntervalBytes) {
+            index.add(sequence, start);
+            lastIndexedPosition = start;
+        }
+        nextSequence = sequence + 1;
+        lastTimestamp = timestamp;
+        position = end;
+    }
+
+    /**
+     * Reads records starting from the first one with sequence not less than {@code from}.
+     *
+     * @return sequence to continue from, the next segment base if this segment is exhausted.
+     */
+    long read(long from, long until, int maxCount, SegmentedLog.RecordConsumer consumer) {
+        ByteBuffer view = buffer.duplicate();
+        int current = index.floorPosition(from);
+        long sequence = from;
+        int count = 0;
+        int end = position;
+        while (current < end && count < maxCount) {
+            int bodyLength = view.getInt(current);
+            long recordSequence = view.getLong(current + HEADER_BYTES);
+            if (recordSequence >= until) {
+                break;
+            }
+            if (recordSequence >= sequence) {
+                consume(view, current, bodyLength, consumer);
+                sequence = recordSequence + 1;
+                count++;
+            }
+            current += HEADER_BYTES + bodyLength;
+        }
+        return sequence;
+    }
+
+    void seal() throws IOException {
+        buffer.force();
+        ByteBuffer data = ByteBuffer.allocate(Integer.BYTES * 2 + Long.BYTES * 2
+                + index.size() * (Long.BYTES + Integer.BYTES));
+        data.putInt(position).putLong(nextSequence).putLong(lastTimestamp).putInt(index.size());
+        for (int i = 0; i < index.size(); i++) {
+            data.putLong(index.sequence(i)).putInt(index.position(i));
+        }
+        Files.write(indexFile, data.array());
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Deletes index of a sealed segment which is going to be appended again, so a crash makes the next open
+     * recover the segment by scanning instead of trusting the stale index.
+     */
+    void unseal() throws IOException {
+        Files.deleteIfExists(indexFile);
+    }
+
+    /**
+     * Unmaps the file, the segment must not be accessed afterwards. The file channel is closed right after mapping,
+     * so the mapping is the only resource held.
+     */
+    void release() {
+        PlatformDependent.freeDirectBuffer(buffer);
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(logFile);
+            Files.deleteIfExists(indexFile);
+        } catch (IOException e) {
+            log.warn("Couldn't delete segment {}", logFile, e);
+        }
+    }
+
+    private void consume(ByteBuffer view, int start, int bodyLength, SegmentedLog.RecordConsumer consumer) {
+        int body = start + HEADER_BYTES;
+        long sequence = view.getLong(body);
+        long timestamp = view.getLong(body + Long.BYTES);
+        int senderLength = view.getShort(body + Long.BYTES * 2) & 0xffff;
+        byte[] sender = new byte[senderLength];
+        view.get(body + FIXED_BODY_BYTES, sender);
+        byte[] payload = new byte[bodyLength - FIXED_BODY_BYTES - senderLength];
+        view.get(body + FIXED_BODY_BYTES + senderLength, payload);
+        consumer.accept(sequence, timestamp, new String(sender, StandardCharsets.UTF_8), payload);
+    }
+
+    private boolean loadIndex() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        position = data.getInt();
+        nextSequence = data.getLong();
+        lastTimestamp = data.getLong();
+        int size = data.getInt();
+        for (int i = 0; i < size; i++) {
+            index.add(data.getLong(), data.getInt());
+        }
+        return true;
+    }
+
+    private void recover() {
+        int current = 0;
+        while (current + HEADER_BYTES + FIXED_BODY_BYTES <= buffer.capacity()) {
+            int bodyLength = buffer.getInt(current);
+            if (bodyLength < FIXED_BODY_BYTES || current + HEADER_BYTES + bodyLength > buffer.capacity()
+                    || buffer.getInt(current + Integer.BYTES) != crc(current + HEADER_BYTES, bodyLength)
+                    || buffer.getLong(current + HEADER_BYTES) != nextSequence) {
+                break;
+            }
+            if (lastIndexedPosition < 0 || current - lastIndexedPosition >= indexIntervalBytes) {
+                index.add(nextSequence, current);
+                lastIndexedPosition = current;
+            }
+            lastTimestamp = buffer.getLong(current + HEADER_BYTES + Long.BYTES);
+            nextSequence++;
+            current += HEADER_BYTES + bodyLength;
+        }
+        if (current + Integer.BYTES <= buffer.capacity() && buffer.getInt(current) != 0) {
+            log.warn("Truncate torn record at {} of {}", current, logFile);
+            buffer.putInt(current, 0);
+        }
+        position = current;
+    }
+
+    private int crc(int start, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(start, length));
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static Path indexFile(Path logFile) {
+        String name = logFile.getFileName().toString();
+        return logFile.resolveSibling(name.substring(0, name.length() - LOG_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+}
@@ -0,0 +1,237 @@
+package org.marsofandrew.chat.core.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of a single topic split into memory-mapped {@link Segment}s.
+ * Appends are serialized, reads don't lock and stream records straight from the mapped files.
+ * Oldest segments are deleted when the log exceeds retention size or age.
+ * <p>
+ * {@link #close()} seals the active segment and unmaps all segments once running reads complete,
+ * so the same directory may be opened again, e.g. when an evicted topic is recreated.
+ */
+@Slf4j
+public class SegmentedLog implements Closeable {
+
+    private static final int TERMINATOR_BYTES = Integer.BYTES;
+
+    private final Path directory;
+    private final LogSettings settings;
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private Segment active;
+    private volatile long nextSequence;
+    private volatile long sizeBytes;
+    private final AtomicInteger readers = new AtomicInteger();
+    private volatile boolean closed;
+
+    private SegmentedLog(Path directory, LogSettings settings) {
+        this.directory = directory;
+        this.settings = settings;
+    }
+
+    /**
+     * Opens log in the directory, recovering records written before crash or restart.
+     */
+    public static SegmentedLog open(Path directory, LogSettings settings) throws IOException {
+        Files.createDirectories(directory);
+        var log = new SegmentedLog(directory, settings);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(Segment::isSegment).sorted().toList();
+        }
+        for (Path file : files) {
+            var segment = Segment.open(file, settings);
+            log.segments.put(segment.getBaseSequence(), segment);
+        }
+        if (log.segments.isEmpty()) {
+            log.segments.put(0L, Segment.create(directory, 0, settings));
+        }
+        log.active = log.segments.lastEntry().getValue();
+        log.active.unseal();
+        log.nextSequence = log.active.getNextSequence();
+        log.sizeBytes = log.segments.values().stream().mapToLong(Segment::getPosition).sum();
+        return log;
+    }
+
+    /**
+     * @return sequence assigned to the record.
+     */
+    public synchronized long append(long timestamp, String sender, byte[] payload) {
+        checkOpen();
+        byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        if (senderBytes.length > Segment.MAX_SENDER_BYTES) {
+            throw new IllegalArgumentException(String.format("sender of %s bytes is too long", senderBytes.length));
+        }
+        int recordBytes = Segment.HEADER_BYTES + Segment.FIXED_BODY_BYTES + senderBytes.length + payload.length;
+        if (recordBytes + TERMINATOR_BYTES > settings.getSegmentBytes()) {
+            throw new IllegalArgumentException(String.format("record of %s bytes doesn't fit segment", recordBytes));
+        }
+        if (!active.fits(recordBytes)) {
+            roll();
+        }
+        long sequence = nextSequence;
+        int before = active.getPosition();
+        active.append(sequence, timestamp, senderBytes, payload);
+        sizeBytes += active.getPosition() - before;
+        nextSequence = sequence + 1;
+        applyRetention(timestamp);
+        return sequence;
+    }
+
+    /**
+     * Starts a new segment from {@code sequence}, so sequences in between are missing.
+     * Active segment without records is replaced instead of being kept empty.
+     *
+     * @throws IllegalArgumentException if {@code sequence} is before {@link #nextSequence()}.
+     */
+    public synchronized void skipTo(long sequence) {
+        checkOpen();
+        if (sequence < nextSequence) {
+            throw new IllegalArgumentException(String.format("Can't skip back from %s to %s", nextSequence, sequence));
+        }
+        if (sequence == nextSequence) {
+            return;
+        }
+        Segment previous = active;
+        try {
+            if (previous.getPosition() > 0) {
+                previous.seal();
+            }
+            active = Segment.create(directory, sequence, settings);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // the new segment is added first, so readers always see at least one segment
+        segments.put(sequence, active);
+        nextSequence = sequence;
+        if (previous.getPosition() == 0) {
+            segments.remove(previous.getBaseSequence());
+            previous.delete();
+        }
+    }
+
+    /**
+     * Reads at most {@code maxCount} records starting from {@code fromSequence}; deleted records are skipped.
+     * Closed log has no records.
+     *
+     * @return sequence to continue reading from.
+     */
+    public long read(long fromSequence, int maxCount, RecordConsumer consumer) {
+        readers.incrementAndGet();
+        try {
+            return closed ? fromSequence : readSegments(fromSequence, maxCount, consumer);
+        } finally {
+            readers.decrementAndGet();
+        }
+    }
+
+    private long readSegments(long fromSequence, int maxCount, RecordConsumer consumer) {
+        long until = nextSequence;
+        long sequence = Math.max(fromSequence, firstSequence());
+        int count = 0;
+        while (sequence < until && count < maxCount) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+            if (entry == null) {
+                sequence = firstSequence();
+                continue;
+            }
+            int[] consumed = new int[1];
+            long next = entry.getValue().read(sequence, until, maxCount - count, (seq, timestamp, sender, payload) -> {
+                consumed[0]++;
+                consumer.accept(seq, timestamp, sender, payload);
+            });
+            count += consumed[0];
+            if (consumed[0] == 0 || next == sequence) {
+                Long higher = segments.higherKey(sequence);
+                if (higher == null) {
+                    break;
+                }
+                next = Math.max(next, higher);
+            }
+            sequence = next;
+        }
+        return sequence;
+    }
+
+    public long firstSequence() {
+        return segments.firstKey();
+    }
+
+    public long nextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return bytes of records kept on disk.
+     */
+    public long sizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            active.seal();
+        } catch (IOException e) {
+            log.warn("Couldn't seal segment {} of {}", active.getBaseSequence(), directory, e);
+        }
+        // readers which have seen the log open still use the mappings
+        while (readers.get() > 0) {
+            Thread.onSpinWait();
+        }
+        segments.values().forEach(Segment::release);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Log " + directory + " is closed");
+        }
+    }
+
+    private void roll() {
+        try {
+            active.seal();
+            active = Segment.create(directory, nextSequence, settings);
+            segments.put(active.getBaseSequence(), active);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void applyRetention(long now) {
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            boolean tooLarge = sizeBytes > settings.getRetentionBytes();
+            boolean tooOld = oldest.getLastTimestamp() < now - settings.getRetentionMillis();
+            if (!tooLarge && !tooOld) {
+                return;
+            }
+            segments.remove(oldest.getBaseSequence());
+            sizeBytes -= oldest.getPosition();
+            oldest.delete();
+            log.debug("Deleted segment {} of {}", oldest.getBaseSequence(), directory);
+        }
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(long sequence, long timestamp, String sender, byte[] payload);
+    }
+}
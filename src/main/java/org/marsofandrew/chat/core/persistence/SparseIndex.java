@@ -0,0 +1,59 @@
+package org.marsofandrew.chat.core.persistence;
+
+import java.util.Arrays;
+
+/**
+ * Sorted (sequence, position) pairs of a segment. Single writer appends, readers search without locking:
+ * arrays are replaced before the size grows, so a reader always sees at least {@code size} entries.
+ */
+final class SparseIndex {
+
+    private volatile long[] sequences = new long[16];
+    private volatile int[] positions = new int[16];
+    private volatile int size;
+
+    void add(long sequence, int position) {
+        int current = size;
+        if (current == sequences.length) {
+            sequences = Arrays.copyOf(sequences, current * 2);
+            positions = Arrays.copyOf(positions, current * 2);
+        }
+        sequences[current] = sequence;
+        positions[current] = position;
+        size = current + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long sequence(int index) {
+        return sequences[index];
+    }
+
+    int position(int index) {
+        return positions[index];
+    }
+
+    /**
+     * @return position of the last indexed record with sequence not greater than {@code sequence}, 0 if none.
+     */
+    int floorPosition(long sequence) {
+        int count = size;
+        long[] indexedSequences = sequences;
+        int[] indexedPositions = positions;
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (indexedSequences[middle] <= sequence) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found < 0 ? 0 : indexedPositions[found];
+    }
+}
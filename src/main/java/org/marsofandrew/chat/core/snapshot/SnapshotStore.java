@@ -0,0 +1,362 @@
+package org.marsofandrew.chat.core.snapshot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.core.TopicService;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Binary snapshot of topic histories and client registrations for a warm restart.
+ * <p>
+ * Every snapshot is written into a new generation directory: topics are spread over {@code chunks} files
+ * written in parallel, registrations go to their own file readable only by the owner. {@code CURRENT} file is switched to the new generation
+ * only when all files are complete, then older generations are deleted. Chunks are loaded in parallel as well,
+ * every chunk is streamed record by record.
+ * <p>
+ * Chunk is {@code int magic} followed by topics: {@code TOPIC name}, {@code MESSAGE sequence epochSecond nano
+ * sender payload} records and {@code END nextSequence}, the chunk ends with {@code EOF}. Strings are UTF-8 bytes
+ * prefixed with {@code int} length, snapshots of the previous version with modified UTF-8 strings are still read.
+ * Restored topics don't count against the topics limit, see {@link TopicService#restoreTopic(String)}.
+ * Every topic is read up to the sequence taken before reading, so a snapshot keeps a consistent prefix of it.
+ * Topics owned by other cluster nodes are not written. Without {@code includeHistory} only topics are kept,
+ * e.g. when histories are restored from the persistent log anyway.
+ *
+ * @param <M> Message type.
+ */
+@Slf4j
+public class SnapshotStore<M> {
+
+    private static final int MAGIC = 0x43485332;
+    private static final int LEGACY_MAGIC = 0x43485331;
+    private static final String CURRENT = "CURRENT";
+    private static final String GENERATION_PREFIX = "generation-";
+    private static final String CHUNK_PREFIX = "topics-";
+    private static final String CLIENTS = "clients.bin";
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final byte TOPIC = 1;
+    private static final byte MESSAGE = 2;
+    private static final byte END = 3;
+    private static final byte EOF = 0;
+
+    private final Path directory;
+    private final MessageCodec<M> codec;
+    private final int chunks;
+    private final boolean includeHistory;
+    private long lastGeneration;
+
+    public SnapshotStore(Path directory, MessageCodec<M> codec, int chunks, boolean includeHistory) {
+        this.directory = directory;
+        this.codec = codec;
+        this.chunks = Math.max(1, chunks);
+        this.includeHistory = includeHistory;
+    }
+
+    /**
+     * Writes a new snapshot, histories are read while the service keeps running.
+     *
+     * @param credentials password hashes of registered clients by their names.
+     */
+    public synchronized void write(TopicService<M> service, Map<String, String> credentials) throws IOException {
+        long started = System.nanoTime();
+        long generation = Math.max(System.currentTimeMillis(), lastGeneration + 1);
+        Path target = directory.resolve(GENERATION_PREFIX + generation);
+        Files.createDirectories(target);
+
+        List<List<TopicService.Topic<M>>> parts = partition(service);
+        long[] messages = new long[parts.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(parts.size(), this::newThread);
+        try {
+            List<Future<?>> written = new ArrayList<>();
+            for (int i = 0; i < parts.size(); i++) {
+                int chunk = i;
+                written.add(executor.submit(() -> {
+                    messages[chunk] = writeChunk(target.resolve(CHUNK_PREFIX + chunk + ".bin"), parts.get(chunk));
+                    return null;
+                }));
+            }
+            writeClients(target.resolve(CLIENTS), credentials);
+            await(written);
+        } finally {
+            executor.shutdown();
+        }
+
+        Path current = directory.resolve(CURRENT);
+        Path temporary = directory.resolve(CURRENT + ".tmp");
+        Files.writeString(temporary, target.getFileName().toString(), StandardCharsets.US_ASCII);
+        Files.move(temporary, current, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastGeneration = generation;
+        deleteGenerationsExcept(target);
+        log.info("Snapshot of {} topics, {} messages and {} clients is written in {} ms",
+                service.getTopicCount(), Arrays.stream(messages).sum(),
+                credentials.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Loads the latest snapshot into a service which isn't used yet.
+     *
+     * @param credentials receives password hashes of registered clients by their names.
+     * @return {@code false} if there is no snapshot.
+     */
+    public boolean load(TopicService<M> service, BiConsumer<String, String> credentials) throws IOException {
+        Path current = directory.resolve(CURRENT);
+        if (!Files.exists(current)) {
+            return false;
+        }
+        long started = System.nanoTime();
+        Path target = directory.resolve(Files.readString(current, StandardCharsets.US_ASCII).trim());
+        List<Path> chunkFiles;
+        try (Stream<Path> files = Files.list(target)) {
+            chunkFiles = files.filter(file -> file.getFileName().toString().startsWith(CHUNK_PREFIX)).toList();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, chunkFiles.size()), this::newThread);
+        try {
+            List<Future<?>> loaded = new ArrayList<>();
+            for (Path chunk : chunkFiles) {
+                loaded.add(executor.submit(() -> {
+                    readChunk(chunk, service);
+                    return null;
+                }));
+            }
+            readClients(target.resolve(CLIENTS), credentials);
+            await(loaded);
+        } finally {
+            executor.shutdown();
+        }
+        log.info("Snapshot {} with {} topics is loaded in {} ms", target.getFileName(), service.getTopicCount(),
+                (System.nanoTime() - started) / 1_000_000);
+        return true;
+    }
+
+    /**
+     * Spreads topics over chunks so that chunks get about the same amount of messages.
+     */
+    private List<List<TopicService.Topic<M>>> partition(TopicService<M> service) {
+        List<List<TopicService.Topic<M>>> parts = new ArrayList<>();
+        long[] sizes = new long[chunks];
+        for (int i = 0; i < chunks; i++) {
+            parts.add(new ArrayList<>());
+        }
+        service.getTopics().stream()
+                .filter(topic -> !topic.isReplica())
+                .sorted(Comparator.comparingLong(TopicService.Topic<M>::getHistorySize).reversed())
+                .forEach(topic -> {
+                    int smallest = 0;
+                    for (int i = 1; i < chunks; i++) {
+                        if (sizes[i] < sizes[smallest]) {
+                            smallest = i;
+                        }
+                    }
+                    parts.get(smallest).add(topic);
+                    sizes[smallest] += topic.getHistorySize() + 1;
+                });
+        return parts;
+    }
+
+    private long writeChunk(Path file, List<TopicService.Topic<M>> topics) throws IOException {
+        long count = 0;
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_BYTES))) {
+            out.writeInt(MAGIC);
+            for (TopicService.Topic<M> topic : topics) {
+                long until = topic.getNextSequence();
+                out.writeByte(TOPIC);
+                writeString(out, topic.getTopic());
+                long[] written = {0};
+                try {
+                    long from = includeHistory ? topic.getFirstSequence() : until;
+                    topic.readHistory(from, until, (sequence, message) -> {
+                        try {
+                            writeMessage(out, sequence, message);
+                            written[0]++;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                out.writeByte(END);
+                out.writeLong(until);
+                count += written[0];
+            }
+            out.writeByte(EOF);
+        }
+        return count;
+    }
+
+    private void writeMessage(DataOutputStream out, long sequence, Message<M> message) throws IOException {
+        byte[] payload = codec.encode(message.message());
+        out.writeByte(MESSAGE);
+        out.writeLong(sequence);
+        out.writeLong(message.timestamp().getEpochSecond());
+        out.writeInt(message.timestamp().getNano());
+        writeString(out, message.sender());
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    private void readChunk(Path file, TopicService<M> service) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES))) {
+            boolean legacy = readMagic(in, file);
+            TopicService.Topic<M> topic = null;
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case TOPIC -> {
+                        topic = service.restoreTopic(readString(in, legacy));
+                        if (topic.isReplica()) {
+                            // owned by another node now, it replicates history from the owner
+                            topic = null;
+                        }
+                    }
+                    case MESSAGE -> {
+                        long sequence = in.readLong();
+                        Instant timestamp = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                        String sender = readString(in, legacy);
+                        byte[] payload = new byte[in.readInt()];
+                        in.readFully(payload);
+                        if (topic != null) {
+                            topic.restore(new Message<>(sequence, timestamp, codec.decode(payload), sender));
+                        }
+                    }
+                    case END -> {
+                        long nextSequence = in.readLong();
+                        if (topic != null && includeHistory) {
+                            topic.restoreUpTo(nextSequence);
+                        }
+                        topic = null;
+                    }
+                    case EOF -> {
+                        return;
+                    }
+                    default -> throw new IOException("Unknown record " + type + " in " + file);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Snapshot chunk " + file + " is truncated", e);
+        }
+    }
+
+    private void writeClients(Path file, Map<String, String> credentials) throws IOException {
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        }
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_BYTES))) {
+            out.writeInt(MAGIC);
+            out.writeInt(credentials.size());
+            for (Map.Entry<String, String> client : credentials.entrySet()) {
+                writeString(out, client.getKey());
+                writeString(out, client.getValue());
+            }
+        }
+    }
+
+    private void readClients(Path file, BiConsumer<String, String> credentials) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES))) {
+            boolean legacy = readMagic(in, file);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                credentials.accept(readString(in, legacy), readString(in, legacy));
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the file is written by the previous version.
+     */
+    private boolean readMagic(DataInputStream in, Path file) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC && magic != LEGACY_MAGIC) {
+            throw new IOException("File " + file + " is not a snapshot");
+        }
+        return magic == LEGACY_MAGIC;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, boolean legacy) throws IOException {
+        if (legacy) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void deleteGenerationsExcept(Path kept) throws IOException {
+        List<Path> obsolete;
+        try (Stream<Path> files = Files.list(directory)) {
+            obsolete = files.filter(file -> file.getFileName().toString().startsWith(GENERATION_PREFIX))
+                    .filter(file -> !file.equals(kept))
+                    .toList();
+        }
+        for (Path generation : obsolete) {
+            try (Stream<Path> files = Files.walk(generation)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static void await(List<Future<?>> tasks) throws IOException {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "snapshot");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,118 @@
+package org.marsofandrew.chat.core.utils;
+
+import lombok.NonNull;
+import org.marsofandrew.chat.core.utils.exception.OversizeException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded set of members compared by identity, every member has an associated value.
+ * Values are kept in a dense array: add and remove are O(1), removal moves the last value into the gap.
+ * <p>
+ * Membership has a single writer: changes and {@link #snapshot()} must be called by one thread at a time.
+ * Snapshots are immutable and may be iterated by any thread without locking.
+ *
+ * @param <K> member type.
+ * @param <V> value type.
+ */
+public class BoundedMembership<K, V> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int limit;
+    private final Map<K, Integer> indexes = new IdentityHashMap<>();
+    private Object[] members;
+    private Object[] values;
+    private int size;
+    private List<V> snapshot = List.of();
+    private boolean changed;
+
+    public BoundedMembership(int limit) {
+        this.limit = limit;
+        this.members = new Object[Math.max(0, Math.min(limit, INITIAL_CAPACITY))];
+        this.values = new Object[members.length];
+    }
+
+    /**
+     * @return previous value of the member or {@code null} if it is a new member.
+     * @throws OversizeException if a new member doesn't fit into the limit.
+     */
+    public V put(@NonNull K member, @NonNull V value) {
+        Integer index = indexes.get(member);
+        if (index != null) {
+            V previous = value(index);
+            values[index] = value;
+            changed = true;
+            return previous;
+        }
+        if (size >= limit) {
+            throw new OversizeException(limit);
+        }
+        if (size == members.length) {
+            int capacity = Math.min(limit, Math.max(INITIAL_CAPACITY, size * 2));
+            members = Arrays.copyOf(members, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        members[size] = member;
+        values[size] = value;
+        indexes.put(member, size++);
+        changed = true;
+        return null;
+    }
+
+    /**
+     * @return value of the removed member or {@code null} if it isn't a member.
+     */
+    public V remove(@NonNull K member) {
+        Integer index = indexes.remove(member);
+        if (index == null) {
+            return null;
+        }
+        V removed = value(index);
+        int last = --size;
+        if (index != last) {
+            members[index] = members[last];
+            values[index] = values[last];
+            @SuppressWarnings("unchecked")
+            K moved = (K) members[index];
+            indexes.put(moved, index);
+        }
+        members[last] = null;
+        values[last] = null;
+        changed = true;
+        return removed;
+    }
+
+    public V get(@NonNull K member) {
+        Integer index = indexes.get(member);
+        return index == null ? null : value(index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Snapshot is rebuilt at most once after a series of changes.
+     *
+     * @return immutable values of all members.
+     */
+    public List<V> snapshot() {
+        if (changed) {
+            @SuppressWarnings("unchecked")
+            V[] copy = (V[]) Arrays.copyOf(values, size);
+            snapshot = Collections.unmodifiableList(Arrays.asList(copy));
+            changed = false;
+        }
+        return snapshot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int index) {
+        return (V) values[index];
+    }
+}
@@ -0,0 +1,158 @@
+package org.marsofandrew.chat.core.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link RingBufferHistory} keeping at most {@code capacity} elements which are additionally limited
+ * by a {@link HistoryBudget} shared with other histories. Trimmed elements are dropped right away,
+ * only their small nodes stay in the ring until they are overwritten.
+ * Elements are reported to the budget in batches of {@link HistoryBudget#getBatchSize()},
+ * {@link #estimatedBytes()} doesn't include elements which aren't reported yet.
+ * Like the ring buffer, the history expects a single writer.
+ *
+ * @param <E> element type.
+ */
+public class BudgetedHistory<E> implements History<E> {
+
+    private final RingBufferHistory<Node<E>> ring;
+    private final HistoryBudget budget;
+    private final ToLongFunction<? super E> weigher;
+    // accessed only by the writer, elements not reported to the budget yet
+    private final List<Node<E>> added = new ArrayList<>();
+    private final List<Node<E>> evicted = new ArrayList<>();
+    // changed under the budget monitor
+    volatile long bytes;
+    private volatile long trimmedUpTo;
+
+    public BudgetedHistory(int capacity, HistoryBudget budget, ToLongFunction<? super E> weigher) {
+        this.ring = new RingBufferHistory<>(capacity, node -> node.bytes, evicted::add);
+        this.budget = budget;
+        this.weigher = weigher;
+    }
+
+    @Override
+    public long add(E element) {
+        Node<E> node = ring.append(sequence -> new Node<>(this, sequence, element, weigher.applyAsLong(element)));
+        account(node);
+        return node.sequence;
+    }
+
+    @Override
+    public E append(LongFunction<? extends E> factory) {
+        Node<E> node = ring.append(sequence -> {
+            E element = factory.apply(sequence);
+            return new Node<>(this, sequence, element, weigher.applyAsLong(element));
+        });
+        // the budget may trim the node as soon as it is reported
+        E element = node.element;
+        account(node);
+        return element;
+    }
+
+    private void account(Node<E> node) {
+        added.add(node);
+        if (added.size() >= budget.getBatchSize()) {
+            budget.added(this, added, evicted);
+            added.clear();
+            evicted.clear();
+        }
+    }
+
+    @Override
+    public E get(long sequence) {
+        if (sequence < trimmedUpTo) {
+            return null;
+        }
+        Node<E> node = ring.get(sequence);
+        return node == null ? null : node.element;
+    }
+
+    @Override
+    public long firstSequence() {
+        return Math.max(ring.firstSequence(), trimmedUpTo);
+    }
+
+    @Override
+    public long nextSequence() {
+        return ring.nextSequence();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void skipTo(long sequence) {
+        ring.skipTo(sequence);
+        // elements evicted by the skip are returned to the budget right away
+        if (!evicted.isEmpty()) {
+            budget.added(this, added, evicted);
+            added.clear();
+            evicted.clear();
+        }
+    }
+
+    /**
+     * Returns all elements to the budget.
+     */
+    @Override
+    public void close() {
+        synchronized (budget) {
+            // unreported elements were never counted
+            added.forEach(budget::release);
+            evicted.forEach(budget::release);
+            added.clear();
+            evicted.clear();
+            while (trimOldest()) {
+                // release everything
+            }
+        }
+    }
+
+    /**
+     * Must be called under the budget monitor.
+     *
+     * @return {@code false} if there is nothing to trim.
+     */
+    boolean trimOldest() {
+        long next = ring.nextSequence();
+        for (long sequence = firstSequence(); sequence < next; sequence++) {
+            Node<E> node = ring.get(sequence);
+            if (node == null || node.released) {
+                continue;
+            }
+            if (!node.accounted) {
+                // the writer hasn't reported it to the budget yet
+                return false;
+            }
+            budget.release(node);
+            trimmedUpTo = sequence + 1;
+            return true;
+        }
+        return false;
+    }
+
+    static final class Node<E> {
+        final BudgetedHistory<E> owner;
+        final long sequence;
+        final long bytes;
+        volatile E element;
+        // guarded by the budget monitor
+        Node<?> prev;
+        Node<?> next;
+        boolean linked;
+        boolean accounted;
+        boolean released;
+
+        Node(BudgetedHistory<E> owner, long sequence, E element, long bytes) {
+            this.owner = owner;
+            this.sequence = sequence;
+            this.element = element;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.marsofandrew.chat.core.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * Bounded history where every element is addressed by a monotonically increasing sequence number.
+ *
+ * @param <E> element type.
+ */
+public interface History<E> {
+
+    /**
+     * Appends element to the history, evicting the oldest one if the history is full.
+     *
+     * @return sequence number assigned to the element.
+     */
+    long add(E element);
+
+    /**
+     * Appends element created for the sequence assigned to it.
+     *
+     * @return appended element.
+     */
+    E append(LongFunction<? extends E> factory);
+
+    /**
+     * @return element with the given sequence or {@code null} if it is evicted or not written yet.
+     */
+    E get(long sequence);
+
+    /**
+     * @return sequence of the oldest retained element.
+     */
+    long firstSequence();
+
+    /**
+     * @return sequence which will be assigned to the next added element.
+     */
+    long nextSequence();
+
+    /**
+     * @return rough amount of bytes retained by the history.
+     */
+    long estimatedBytes();
+
+    /**
+     * Moves the history forward, so the next element gets {@code sequence}, sequences in between are missing.
+     * Used to restore elements with their original sequences, must not be called concurrently with writers.
+     *
+     * @throws IllegalArgumentException if {@code sequence} is before {@link #nextSequence()}.
+     */
+    void skipTo(long sequence);
+
+    default int size() {
+        return (int) (nextSequence() - firstSequence());
+    }
+
+    /**
+     * Reads at most {@code maxCount} elements starting from {@code fromSequence}.
+     * Evicted elements are skipped.
+     *
+     * @return sequence to continue reading from.
+     */
+    default long read(long fromSequence, int maxCount, SequencedConsumer<? super E> consumer) {
+        long sequence = Math.max(fromSequence, firstSequence());
+        long end = nextSequence();
+        int count = 0;
+        while (sequence < end && count < maxCount) {
+            E element = get(sequence);
+            if (element == null) {
+                sequence = Math.max(sequence + 1, firstSequence());
+                continue;
+            }
+            consumer.accept(sequence++, element);
+            count++;
+        }
+        return sequence;
+    }
+
+    default List<E> toList() {
+        List<E> result = new ArrayList<>(size());
+        read(firstSequence(), Integer.MAX_VALUE, (ign, element) -> result.add(element));
+        return result;
+    }
+
+    /**
+     * Releases resources held by the history.
+     */
+    default void close() {
+    }
+
+    @FunctionalInterface
+    interface SequencedConsumer<E> {
+        void accept(long sequence, E element);
+    }
+}
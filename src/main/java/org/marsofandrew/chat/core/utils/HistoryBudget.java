@@ -0,0 +1,157 @@
+package org.marsofandrew.chat.core.utils;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Byte budget shared by {@link BudgetedHistory}s. All retained elements are linked in the order they were added,
+ * so when the budget is exceeded the globally oldest elements are trimmed first.
+ * A history is never trimmed below {@link #getMinShareBytes()} because of other histories
+ * and trims its own oldest elements when it grows over {@link #getMaxShareBytes()}.
+ * Histories always lose their oldest elements first, so trimming never leaves holes.
+ * <p>
+ * To take the shared monitor less often a history may report its elements in batches of {@link #getBatchSize()}.
+ * This relaxes the global order: elements are ordered by the time their batch is reported, and elements
+ * which aren't reported yet are neither counted nor trimmed because of other histories, so every history may
+ * hold up to {@code batchSize - 1} elements over the budget. Batching is off by default.
+ * Elements of a history skipped at its min share leave the global order for good and are trimmed
+ * only by growth of their own history.
+ */
+public class HistoryBudget {
+
+    public static final int DEFAULT_BATCH_SIZE = 1;
+
+    @Getter
+    private final long totalBytes;
+    @Getter
+    private final long minShareBytes;
+    @Getter
+    private final long maxShareBytes;
+    @Getter
+    private final int batchSize;
+
+    // guarded by this
+    private BudgetedHistory.Node<?> head;
+    private BudgetedHistory.Node<?> tail;
+    private volatile long usedBytes;
+    private volatile long trimmed;
+
+    /**
+     * Histories report every element right away.
+     */
+    public HistoryBudget(long totalBytes, long minShareBytes, long maxShareBytes) {
+        this(totalBytes, minShareBytes, maxShareBytes, DEFAULT_BATCH_SIZE);
+    }
+
+    public HistoryBudget(long totalBytes, long minShareBytes, long maxShareBytes, int batchSize) {
+        if (minShareBytes > maxShareBytes || maxShareBytes > totalBytes) {
+            throw new IllegalArgumentException(String.format(
+                    "shares should satisfy min <= max <= total, but were %s, %s, %s",
+                    minShareBytes, maxShareBytes, totalBytes));
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException(String.format("batchSize should be positive, but was %s", batchSize));
+        }
+        this.totalBytes = totalBytes;
+        this.minShareBytes = minShareBytes;
+        this.maxShareBytes = maxShareBytes;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return bytes retained by all histories.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return number of elements trimmed because of the budget.
+     */
+    public long getTrimmed() {
+        return trimmed;
+    }
+
+    /**
+     * Releases {@code evicted} elements, accounts {@code added} ones of {@code owner} in their order
+     * and trims histories to fit into the budget.
+     */
+    synchronized void added(BudgetedHistory<?> owner, List<? extends BudgetedHistory.Node<?>> added,
+                            List<? extends BudgetedHistory.Node<?>> evicted) {
+        for (int i = 0; i < evicted.size(); i++) {
+            release(evicted.get(i));
+        }
+        for (int i = 0; i < added.size(); i++) {
+            var node = added.get(i);
+            if (node.released) {
+                continue;
+            }
+            node.accounted = true;
+            owner.bytes += node.bytes;
+            usedBytes += node.bytes;
+            link(node);
+        }
+
+        while (owner.bytes > maxShareBytes && owner.trimOldest()) {
+            trimmed++;
+        }
+        while (usedBytes > totalBytes && head != null) {
+            var oldest = head;
+            if (oldest.owner.bytes <= minShareBytes) {
+                // the rest of this history is protected, it is trimmed only by its own growth
+                unlink(oldest);
+                continue;
+            }
+            if (oldest.owner.trimOldest()) {
+                trimmed++;
+            } else {
+                unlink(oldest);
+            }
+        }
+    }
+
+    synchronized void release(BudgetedHistory.Node<?> node) {
+        if (node.released) {
+            return;
+        }
+        node.released = true;
+        node.element = null;
+        if (!node.accounted) {
+            return;
+        }
+        unlink(node);
+        node.owner.bytes -= node.bytes;
+        usedBytes -= node.bytes;
+    }
+
+    private void link(BudgetedHistory.Node<?> node) {
+        node.linked = true;
+        node.prev = tail;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+    }
+
+    private void unlink(BudgetedHistory.Node<?> node) {
+        if (!node.linked) {
+            return;
+        }
+        node.linked = false;
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+}
@@ -0,0 +1,175 @@
+package org.marsofandrew.chat.core.utils;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of terms of sequenced documents, e.g. messages of a topic history. Documents are added in sequence order
+ * and evicted from the oldest one, so postings of every term are kept as ring buffers of ascending sequences and
+ * eviction removes exactly the heads of the evicted document terms.
+ * <p>
+ * Terms are lower-cased runs of letters and digits. Not thread-safe, the owner has to serialize access.
+ */
+public class InvertedIndex {
+
+    public static final int DEFAULT_MAX_TERMS = 64;
+    public static final int DEFAULT_MAX_TERM_LENGTH = 64;
+
+    private static final String[] NO_TERMS = new String[0];
+    private static final long[] NOTHING = new long[0];
+
+    private final int maxTerms;
+    private final int maxTermLength;
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final ArrayDeque<Document> documents = new ArrayDeque<>();
+
+    public InvertedIndex() {
+        this(DEFAULT_MAX_TERMS, DEFAULT_MAX_TERM_LENGTH);
+    }
+
+    /**
+     * @param maxTerms      distinct terms indexed per document, the rest of a long document isn't searchable.
+     * @param maxTermLength longer terms are cut to this length.
+     */
+    public InvertedIndex(int maxTerms, int maxTermLength) {
+        this.maxTerms = maxTerms;
+        this.maxTermLength = maxTermLength;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code sequence} isn't greater than sequences already added.
+     */
+    public void add(long sequence, CharSequence text) {
+        Document last = documents.peekLast();
+        if (last != null && last.sequence() >= sequence) {
+            throw new IllegalArgumentException(
+                    String.format("sequence %d should be greater than %d", sequence, last.sequence()));
+        }
+        String[] terms = tokenize(text);
+        for (String term : terms) {
+            postings.computeIfAbsent(term, ign -> new Postings()).addLast(sequence);
+        }
+        documents.addLast(new Document(sequence, terms));
+    }
+
+    /**
+     * Removes documents with sequences below {@code sequence}.
+     */
+    public void evictBefore(long sequence) {
+        Document first;
+        while ((first = documents.peekFirst()) != null && first.sequence() < sequence) {
+            documents.pollFirst();
+            for (String term : first.terms()) {
+                Postings termPostings = postings.get(term);
+                termPostings.removeFirst();
+                if (termPostings.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return ascending sequences of at most {@code limit} newest documents containing {@code term}.
+     */
+    public long[] search(String term, int limit) {
+        String[] normalized = tokenize(term);
+        Postings termPostings = normalized.length == 1 ? postings.get(normalized[0]) : null;
+        if (termPostings == null || limit <= 0) {
+            return NOTHING;
+        }
+        int count = Math.min(limit, termPostings.size());
+        long[] result = new long[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = termPostings.get(termPostings.size() - count + i);
+        }
+        return result;
+    }
+
+    public int termCount() {
+        return postings.size();
+    }
+
+    public int documentCount() {
+        return documents.size();
+    }
+
+    private String[] tokenize(CharSequence text) {
+        Set<String> terms = null;
+        var term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < maxTermLength) {
+                    term.append(Character.toLowerCase(c));
+                }
+                continue;
+            }
+            if (term.length() == 0) {
+                continue;
+            }
+            if (terms == null) {
+                terms = new LinkedHashSet<>();
+            }
+            terms.add(term.toString());
+            term.setLength(0);
+            if (terms.size() == maxTerms) {
+                break;
+            }
+        }
+        return terms == null ? NO_TERMS : terms.toArray(NO_TERMS);
+    }
+
+    private record Document(long sequence, String[] terms) {
+    }
+
+    /**
+     * Growable ring of ascending sequences.
+     */
+    private static final class Postings {
+
+        private long[] sequences = new long[4];
+        private int head;
+        private int size;
+
+        void addLast(long sequence) {
+            if (size == sequences.length) {
+                long[] grown = new long[sequences.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = get(i);
+                }
+                sequences = grown;
+                head = 0;
+            }
+            sequences[(head + size++) % sequences.length] = sequence;
+        }
+
+        void removeFirst() {
+            head = (head + 1) % sequences.length;
+            size--;
+            if (size > 4 && size * 4 <= sequences.length) {
+                long[] shrunk = new long[sequences.length / 2];
+                for (int i = 0; i < size; i++) {
+                    shrunk[i] = get(i);
+                }
+                sequences = shrunk;
+                head = 0;
+            }
+        }
+
+        long get(int index) {
+            return sequences[(head + index) % sequences.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
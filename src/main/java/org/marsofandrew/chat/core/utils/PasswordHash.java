@@ -0,0 +1,97 @@
+package org.marsofandrew.chat.core.utils;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Salted PBKDF2 hash of a password, so registrations can be persisted without the passwords themselves.
+ * Encoded form is {@code pbkdf2:iterations:salt:hash} with Base64 salt and hash.
+ */
+public final class PasswordHash {
+
+    private static final String PREFIX = "pbkdf2";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int ITERATIONS = 10_000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    private PasswordHash(int iterations, byte[] salt, byte[] hash) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    /**
+     * Hashes {@code password} with a new random salt.
+     */
+    public static PasswordHash of(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return new PasswordHash(ITERATIONS, salt, hash(password, salt, ITERATIONS));
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code encoded} is not produced by {@link #encode()}.
+     */
+    public static PasswordHash decode(String encoded) {
+        String[] parts = encoded.split(":");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            throw new IllegalArgumentException("Not a password hash");
+        }
+        var decoder = Base64.getDecoder();
+        return new PasswordHash(Integer.parseInt(parts[1]), decoder.decode(parts[2]), decoder.decode(parts[3]));
+    }
+
+    public static boolean isEncoded(String value) {
+        return value.startsWith(PREFIX + ":");
+    }
+
+    public String encode() {
+        var encoder = Base64.getEncoder();
+        return PREFIX + ":" + iterations + ":" + encoder.encodeToString(salt) + ":" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * Compares in constant time, so the time doesn't tell how much of the hash matched.
+     */
+    public boolean matches(String password) {
+        return MessageDigest.isEqual(hash, hash(password, salt, iterations));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PasswordHash other)) {
+            return false;
+        }
+        return iterations == other.iterations && Arrays.equals(salt, other.salt) && Arrays.equals(hash, other.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(hash);
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations) {
+        var spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.marsofandrew.chat.core.utils;
+
+/**
+ * Rate of {@code permitsPerSecond} on average with bursts of up to {@code burst} permits.
+ * Non-positive rate means no limit.
+ */
+public record RateLimit(double permitsPerSecond, int burst) {
+
+    public static final RateLimit UNLIMITED = new RateLimit(0, 0);
+
+    public boolean isUnlimited() {
+        return permitsPerSecond <= 0;
+    }
+
+    /**
+     * @return new bucket enforcing this limit or {@code null} when there is no limit.
+     */
+    public TokenBucket newBucket() {
+        return isUnlimited() ? null : new TokenBucket(this);
+    }
+
+    /**
+     * Parses {@code <permitsPerSecond>[:<burst>]}, burst defaults to one second worth of permits.
+     */
+    public static RateLimit parse(String value) {
+        int separator = value.indexOf(':');
+        try {
+            double rate = Double.parseDouble(separator < 0 ? value : value.substring(0, separator));
+            int burst = separator < 0 ? (int) Math.max(1, Math.ceil(rate))
+                    : Integer.parseInt(value.substring(separator + 1));
+            return new RateLimit(rate, burst);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Rate limit should be in <permitsPerSecond>[:<burst>] format: " + value);
+        }
+    }
+}
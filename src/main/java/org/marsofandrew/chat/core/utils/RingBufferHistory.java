@@ -0,0 +1,157 @@
+package org.marsofandrew.chat.core.utils;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Fixed-capacity lock-free ring buffer. Readers never block: every slot is stamped with the sequence
+ * of the element it holds, so a reader detects a slot overwritten under it and treats it as evicted.
+ * Writers claim sequences in order and publish them one after another, so the buffer behaves as a
+ * single writer even if {@link #add(Object)} is called from several threads.
+ *
+ * @param <E> element type.
+ */
+public class RingBufferHistory<E> implements History<E> {
+
+    private static final long WRITING = -1;
+
+    @Getter
+    private final int capacity;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong claimed = new AtomicLong();
+    private final ToLongFunction<? super E> weigher;
+    private final Consumer<? super E> evictionListener;
+    private volatile long published;
+    private volatile long start;
+    private volatile long bytes;
+
+    public RingBufferHistory(int capacity) {
+        this(capacity, ign -> 0, ign -> {
+        });
+    }
+
+    /**
+     * @param weigher          estimates bytes retained by an element.
+     * @param evictionListener called by the writer with every element overwritten by a newer one.
+     */
+    public RingBufferHistory(int capacity, ToLongFunction<? super E> weigher, Consumer<? super E> evictionListener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("capacity should be positive, but was %s", capacity));
+        }
+        this.capacity = capacity;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, WRITING);
+        }
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+    }
+
+    @Override
+    public long add(E element) {
+        long sequence = claim();
+        store(sequence, element);
+        return sequence;
+    }
+
+    @Override
+    public E append(LongFunction<? extends E> factory) {
+        long sequence = claim();
+        E element;
+        try {
+            element = factory.apply(sequence);
+        } catch (RuntimeException e) {
+            published = sequence + 1;
+            throw e;
+        }
+        store(sequence, element);
+        return element;
+    }
+
+    private long claim() {
+        long sequence = claimed.getAndIncrement();
+        while (published != sequence) {
+            Thread.onSpinWait();
+        }
+        return sequence;
+    }
+
+    private void store(long sequence, E element) {
+        int index = index(sequence);
+        E evicted = elements.get(index);
+        sequences.set(index, WRITING);
+        elements.set(index, element);
+        sequences.set(index, sequence);
+        bytes += weigher.applyAsLong(element) - (evicted == null ? 0 : weigher.applyAsLong(evicted));
+        published = sequence + 1;
+        if (evicted != null) {
+            evictionListener.accept(evicted);
+        }
+    }
+
+    @Override
+    public E get(long sequence) {
+        if (sequence < 0) {
+            return null;
+        }
+        int index = index(sequence);
+        if (sequences.get(index) != sequence) {
+            return null;
+        }
+        E element = elements.get(index);
+        return sequences.get(index) == sequence ? element : null;
+    }
+
+    @Override
+    public long firstSequence() {
+        return Math.max(start, published - capacity);
+    }
+
+    /**
+     * Elements retained before the skipped sequences are evicted, so the history holds only elements after the gap.
+     */
+    @Override
+    public void skipTo(long sequence) {
+        if (sequence < published) {
+            throw new IllegalArgumentException(String.format("Can't skip back from %s to %s", published, sequence));
+        }
+        if (sequence == published) {
+            return;
+        }
+        for (long retained = firstSequence(); retained < published; retained++) {
+            int index = index(retained);
+            E evicted = elements.get(index);
+            sequences.set(index, WRITING);
+            elements.set(index, null);
+            if (evicted != null) {
+                bytes -= weigher.applyAsLong(evicted);
+                evictionListener.accept(evicted);
+            }
+        }
+        start = sequence;
+        claimed.set(sequence);
+        published = sequence;
+    }
+
+    @Override
+    public long nextSequence() {
+        return published;
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return bytes;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+}
@@ -0,0 +1,79 @@
+package org.marsofandrew.chat.core.utils;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time in submission order without a dedicated thread and without locks.
+ * Thread submitting a task to the idle executor runs it and tasks submitted meanwhile, but at most
+ * {@code maxBatch} of them: the rest is handed off to another executor, so a busy executor doesn't capture
+ * the submitting thread, e.g. an event loop serving other channels.
+ * Tasks submitted by a running task are run after it.
+ */
+@Slf4j
+public class SerialExecutor implements Executor {
+
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final int maxBatch;
+    private final Executor handoff;
+    private final Runnable drain = this::drain;
+
+    /**
+     * @param handoff runs the rest of the tasks when a thread has already run {@code maxBatch} of them.
+     */
+    public SerialExecutor(int maxBatch, @NonNull Executor handoff) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException(String.format("maxBatch should be positive, but was %s", maxBatch));
+        }
+        this.maxBatch = maxBatch;
+        this.handoff = handoff;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable task) {
+        tasks.offer(task);
+        if (pending.getAndIncrement() == 0) {
+            drain();
+        }
+    }
+
+    /**
+     * Only one thread drains at a time: the one which made {@link #pending} non-zero or got the handoff.
+     */
+    private void drain() {
+        int ran = 0;
+        boolean more = true;
+        while (more) {
+            if (ran == maxBatch && handOff()) {
+                return;
+            }
+            ran++;
+            try {
+                tasks.poll().run();
+            } catch (Throwable e) {
+                log.error("Task failed", e);
+            } finally {
+                more = pending.decrementAndGet() != 0;
+            }
+        }
+    }
+
+    private boolean handOff() {
+        try {
+            handoff.execute(drain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // nobody else can run the tasks, keep draining here
+            return false;
+        }
+    }
+}
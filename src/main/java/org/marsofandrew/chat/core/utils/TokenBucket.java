@@ -0,0 +1,42 @@
+package org.marsofandrew.chat.core.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free and allocation-free token bucket implemented as generic cell rate algorithm.
+ * The whole state is the theoretical arrival time of the next permit, so the bucket is a single atomic long.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    public TokenBucket(RateLimit limit) {
+        if (limit.isUnlimited()) {
+            throw new IllegalArgumentException("Bucket needs a positive rate");
+        }
+        this.intervalNanos = Math.max(1, Math.round(1_000_000_000 / limit.permitsPerSecond()));
+        this.toleranceNanos = intervalNanos * (Math.max(1, limit.burst()) - 1);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * @return {@code false} if the permit isn't available at {@code nowNanos}, the bucket isn't changed then.
+     */
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long start = Math.max(arrival, nowNanos);
+            if (start - nowNanos > toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+}
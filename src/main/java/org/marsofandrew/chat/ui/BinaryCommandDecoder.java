@@ -0,0 +1,51 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Decodes a single {@link BinaryProtocol} frame into the same {@link Command}s and chat messages
+ * {@link CommandDecoder} produces, so both protocols are served by {@link TelnetServerHandler}.
+ */
+public class BinaryCommandDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+    private static final String[] NO_ARGS = new String[0];
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) {
+        if (!frame.isReadable()) {
+            throw new CorruptedFrameException("Empty frame");
+        }
+        byte type = frame.readByte();
+        try {
+            out.add(switch (type) {
+                case BinaryProtocol.PUBLISH -> frame.toString(StandardCharsets.UTF_8);
+                case BinaryProtocol.LOGIN -> command(Command.Type.LOGIN,
+                        BinaryProtocol.readString(frame), BinaryProtocol.readString(frame));
+                case BinaryProtocol.LEAVE -> new Command(Command.Type.LEAVE, NO_ARGS);
+                case BinaryProtocol.JOIN -> command(Command.Type.JOIN, BinaryProtocol.readString(frame));
+                case BinaryProtocol.RESUME -> command(Command.Type.RESUME,
+                        BinaryProtocol.readString(frame), Long.toString(frame.readLong()));
+                case BinaryProtocol.SEARCH -> command(Command.Type.SEARCH,
+                        BinaryProtocol.readString(frame), Integer.toString(frame.readInt()));
+                case BinaryProtocol.USERS -> command(Command.Type.USERS, Integer.toString(frame.readInt()));
+                case BinaryProtocol.STATS -> {
+                    String topic = frame.isReadable() ? BinaryProtocol.readString(frame) : "";
+                    yield topic.isEmpty() ? new Command(Command.Type.STATS, NO_ARGS) : command(Command.Type.STATS, topic);
+                }
+                default -> new Command(Command.Type.UNKNOWN, NO_ARGS);
+            });
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptedFrameException("Truncated frame of type " + type, e);
+        }
+    }
+
+    private static Command command(Command.Type type, String... args) {
+        return new Command(type, args);
+    }
+}
@@ -0,0 +1,41 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+
+/**
+ * Renders {@link BinaryProtocol#DELIVER} frames. The single instance is shared by all binary clients,
+ * so a broadcast is encoded once and its frame is written to every binary channel without copying.
+ */
+public final class BinaryMessageEncoder implements MessageEncoder<String> {
+
+    public static final BinaryMessageEncoder INSTANCE = new BinaryMessageEncoder(PooledByteBufAllocator.DEFAULT);
+
+    private final ByteBufAllocator allocator;
+
+    public BinaryMessageEncoder(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    @Override
+    public ByteBuf encode(String topic, Message<String> message) {
+        ByteBuf frame = BinaryProtocol.start(allocator, BinaryProtocol.DELIVER, 2 * Short.BYTES
+                + ByteBufUtil.utf8MaxBytes(topic) + 2 * Long.BYTES + ByteBufUtil.utf8MaxBytes(message.sender())
+                + ByteBufUtil.utf8MaxBytes(message.message()));
+        try {
+            BinaryProtocol.writeString(frame, topic);
+            frame.writeLong(message.sequence());
+            frame.writeLong(message.timestamp().toEpochMilli());
+            BinaryProtocol.writeString(frame, message.sender());
+            ByteBufUtil.writeUtf8(frame, message.message());
+            return BinaryProtocol.finish(frame);
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+    }
+}
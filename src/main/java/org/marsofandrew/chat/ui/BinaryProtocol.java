@@ -0,0 +1,89 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the binary client protocol. Every frame is {@code int length, byte type, body},
+ * strings are {@code short length, UTF-8 bytes}, message payload is UTF-8 bytes up to the end of the frame.
+ * <p>
+ * Client sends:
+ * <ul>
+ *     <li>{@link #LOGIN} {@code user, password}</li>
+ *     <li>{@link #LEAVE}</li>
+ *     <li>{@link #JOIN} {@code topic}</li>
+ *     <li>{@link #RESUME} {@code topic, long lastSeenSequence}</li>
+ *     <li>{@link #USERS} {@code int page}</li>
+ *     <li>{@link #STATS} {@code topic} - empty topic reports the whole server</li>
+ *     <li>{@link #PUBLISH} {@code payload}</li>
+ *     <li>{@link #SEARCH} {@code term, int limit} - found messages are delivered like replayed history</li>
+ * </ul>
+ * Server sends:
+ * <ul>
+ *     <li>{@link #DELIVER} {@code topic, long sequence, long epochMillis, sender, payload}</li>
+ *     <li>{@link #REPLY} {@code text} - the same replies, errors and gaps telnet clients get</li>
+ * </ul>
+ */
+final class BinaryProtocol {
+
+    static final byte LOGIN = 1;
+    static final byte LEAVE = 2;
+    static final byte JOIN = 3;
+    static final byte RESUME = 4;
+    static final byte USERS = 5;
+    static final byte STATS = 6;
+    static final byte PUBLISH = 7;
+    static final byte SEARCH = 8;
+
+    static final byte DELIVER = 16;
+    static final byte REPLY = 17;
+
+    static final int DEFAULT_MAX_FRAME_BYTES = 64 * 1024;
+
+    private static final int LENGTH_BYTES = 4;
+
+    private BinaryProtocol() {
+    }
+
+    static LengthFieldBasedFrameDecoder frameDecoder(int maxFrameBytes) {
+        return new LengthFieldBasedFrameDecoder(maxFrameBytes, 0, LENGTH_BYTES, 0, LENGTH_BYTES);
+    }
+
+    static ByteBuf start(ByteBufAllocator allocator, byte type, int maxBodyBytes) {
+        ByteBuf frame = allocator.directBuffer(LENGTH_BYTES + 1 + maxBodyBytes);
+        frame.writeInt(0);
+        frame.writeByte(type);
+        return frame;
+    }
+
+    static ByteBuf finish(ByteBuf frame) {
+        return frame.setInt(0, frame.writerIndex() - LENGTH_BYTES);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string is longer than 65535 bytes, nothing is written then.
+     */
+    static void writeString(ByteBuf frame, String value) {
+        int length = ByteBufUtil.utf8Bytes(value);
+        if (length > 0xffff) {
+            throw new IllegalArgumentException("String is too long for the binary protocol: " + length + " bytes");
+        }
+        frame.writeShort(length);
+        ByteBufUtil.writeUtf8(frame, value);
+    }
+
+    static String readString(ByteBuf frame) {
+        int length = frame.readUnsignedShort();
+        if (length > frame.readableBytes()) {
+            throw new CorruptedFrameException("Invalid string length " + length);
+        }
+        String value = frame.toString(frame.readerIndex(), length, StandardCharsets.UTF_8);
+        frame.skipBytes(length);
+        return value;
+    }
+}
@@ -0,0 +1,25 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * Wraps string replies into {@link BinaryProtocol#REPLY} frames, the trailing line break is dropped.
+ * Delivered messages are already framed by {@link BinaryMessageEncoder} and pass through as they are.
+ */
+public class BinaryReplyEncoder extends MessageToByteEncoder<String> {
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, String reply, boolean preferDirect) {
+        return BinaryProtocol.start(ctx.alloc(), BinaryProtocol.REPLY, ByteBufUtil.utf8MaxBytes(reply));
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, String reply, ByteBuf out) {
+        int end = reply.endsWith("\n") ? reply.length() - 1 : reply.length();
+        ByteBufUtil.writeUtf8(out, reply, 0, end);
+        BinaryProtocol.finish(out);
+    }
+}
@@ -0,0 +1,32 @@
+package org.marsofandrew.chat.ui;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Command line decoded by {@link CommandDecoder}.
+ *
+ * @param args non-empty space separated arguments following the command name.
+ */
+record Command(Type type, String[] args) {
+
+    enum Type {
+        LOGIN("/login"),
+        LEAVE("/leave"),
+        JOIN("/join"),
+        RESUME("/resume"),
+        USERS("/users"),
+        STATS("/stats"),
+        SEARCH("/search"),
+        UNKNOWN("");
+
+        private final byte[] command;
+
+        Type(String name) {
+            this.command = name.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        byte[] command() {
+            return command;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Decodes a single line frame straight from the {@link ByteBuf}.
+ * Lines starting with '/' become {@link Command}s, other lines are chat messages decoded into a single String
+ * without the leading '\' escape.
+ */
+public class CommandDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+    private static final byte COMMAND = '/';
+    private static final byte ESCAPE = '\\';
+    private static final byte SPACE = ' ';
+    private static final Command.Type[] TYPES = Command.Type.values();
+    private static final String[] NO_ARGS = new String[0];
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf line, List<Object> out) {
+        int start = line.readerIndex();
+        int end = line.writerIndex();
+        if (start < end && line.getByte(start) == COMMAND) {
+            out.add(decodeCommand(line, start, end));
+            return;
+        }
+        if (start < end && line.getByte(start) == ESCAPE) {
+            start++;
+        }
+        out.add(line.toString(start, end - start, StandardCharsets.UTF_8));
+    }
+
+    private static Command decodeCommand(ByteBuf line, int start, int end) {
+        int nameEnd = line.indexOf(start, end, SPACE);
+        if (nameEnd < 0) {
+            nameEnd = end;
+        }
+        Command.Type type = classify(line, start, nameEnd);
+        return new Command(type, type == Command.Type.UNKNOWN ? NO_ARGS : tokenize(line, nameEnd, end));
+    }
+
+    private static Command.Type classify(ByteBuf line, int start, int end) {
+        for (Command.Type type : TYPES) {
+            if (matches(line, start, end, type.command())) {
+                return type;
+            }
+        }
+        return Command.Type.UNKNOWN;
+    }
+
+    private static boolean matches(ByteBuf line, int start, int end, byte[] command) {
+        if (end - start != command.length || command.length == 0) {
+            return false;
+        }
+        for (int i = 0; i < command.length; i++) {
+            if (line.getByte(start + i) != command[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] tokenize(ByteBuf line, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; ) {
+            int tokenEnd = tokenEnd(line, i, end);
+            if (tokenEnd > i) {
+                count++;
+            }
+            i = tokenEnd + 1;
+        }
+        if (count == 0) {
+            return NO_ARGS;
+        }
+        String[] args = new String[count];
+        int index = 0;
+        for (int i = start; i < end; ) {
+            int tokenEnd = tokenEnd(line, i, end);
+            if (tokenEnd > i) {
+                args[index++] = line.toString(i, tokenEnd - i, StandardCharsets.UTF_8);
+            }
+            i = tokenEnd + 1;
+        }
+        return args;
+    }
+
+    private static int tokenEnd(ByteBuf line, int start, int end) {
+        int space = line.indexOf(start, end, SPACE);
+        return space < 0 ? end : space;
+    }
+}
@@ -0,0 +1,242 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.handler.flush.FlushConsolidationHandler;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+import org.marsofandrew.chat.core.dispatch.OverflowPolicy;
+import org.marsofandrew.chat.core.offheap.OffHeapHistory;
+import org.marsofandrew.chat.core.persistence.LogSettings;
+import org.marsofandrew.chat.core.utils.HistoryBudget;
+import org.marsofandrew.chat.core.utils.RateLimit;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of {@link TelnetServer}.
+ */
+@Getter
+@Builder
+public class ServerConfig {
+
+    public static final int DEFAULT_CLIENTS_LIMIT = 10;
+    public static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+    public static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+    public static final int DEFAULT_MAILBOX_CAPACITY = 1024;
+    public static final long DEFAULT_UNWRITABLE_TIMEOUT_MILLIS = 30_000;
+    public static final long DEFAULT_CLIENT_IDLE_MILLIS = 3_600_000;
+    public static final long DEFAULT_TOPIC_IDLE_MILLIS = 600_000;
+    public static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 60_000;
+    public static final int DEFAULT_SO_BACKLOG = 1024;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 300_000;
+    public static final String DEFAULT_WEB_SOCKET_PATH = "/chat";
+    public static final int DEFAULT_WEB_SOCKET_MAX_FRAME_BYTES = 64 * 1024;
+
+    private final int port;
+    private final int messageLimit;
+
+    @Builder.Default
+    private final int clientsPerChannelLimit = DEFAULT_CLIENTS_LIMIT;
+
+    /**
+     * Prefixes chat lines of telnet and WebSocket clients with "#{sequence}", so they can {@code /resume} topics.
+     * Disabled by default, because it changes the line format existing clients parse.
+     */
+    private final boolean sequencePrefix;
+
+    /**
+     * Port of the length-prefixed binary protocol, 0 serves only telnet clients.
+     */
+    private final int binaryPort;
+
+    @Builder.Default
+    private final int binaryMaxFrameBytes = BinaryProtocol.DEFAULT_MAX_FRAME_BYTES;
+
+    /**
+     * Port of WebSocket clients, 0 disables them.
+     */
+    private final int webSocketPort;
+
+    @Builder.Default
+    private final String webSocketPath = DEFAULT_WEB_SOCKET_PATH;
+
+    @Builder.Default
+    private final int webSocketMaxFrameBytes = DEFAULT_WEB_SOCKET_MAX_FRAME_BYTES;
+
+    @Builder.Default
+    private final Transport transport = Transport.AUTO;
+
+    /**
+     * Number of accepting event loops, 0 means one per acceptor.
+     */
+    private final int bossThreads;
+
+    /**
+     * Number of event loops serving client channels, 0 means netty default.
+     */
+    private final int workerThreads;
+
+    @Builder.Default
+    private final int soBacklog = DEFAULT_SO_BACKLOG;
+
+    /**
+     * Binds {@link #acceptors} server channels to the same port, supported only by epoll transport.
+     */
+    private final boolean reusePort;
+
+    @Builder.Default
+    private final int acceptors = 1;
+
+    @Builder.Default
+    private final boolean tcpNoDelay = true;
+
+    /**
+     * Uses pooled buffers for server and client channels.
+     */
+    @Builder.Default
+    private final boolean pooledAllocator = true;
+
+    /**
+     * Channel becomes writable again when outbound buffer drops below this amount of bytes.
+     */
+    @Builder.Default
+    private final int writeBufferLowWaterMark = DEFAULT_LOW_WATER_MARK;
+
+    /**
+     * Channel becomes unwritable when outbound buffer grows over this amount of bytes.
+     */
+    @Builder.Default
+    private final int writeBufferHighWaterMark = DEFAULT_HIGH_WATER_MARK;
+
+    /**
+     * Replies written while reading a batch of commands are flushed together when the read completes or
+     * after this amount of flushes, 0 flushes every reply immediately.
+     */
+    @Builder.Default
+    private final int flushConsolidationLimit = FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES;
+
+    @Builder.Default
+    private final int mailboxCapacity = DEFAULT_MAILBOX_CAPACITY;
+
+    @Builder.Default
+    private final OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    @Builder.Default
+    private final long unwritableTimeoutMillis = DEFAULT_UNWRITABLE_TIMEOUT_MILLIS;
+
+    /**
+     * Client without an active channel is forgotten after this time, 0 keeps clients forever.
+     */
+    @Builder.Default
+    private final long clientIdleMillis = DEFAULT_CLIENT_IDLE_MILLIS;
+
+    /**
+     * Topic without members is evicted after this time, 0 keeps topics forever.
+     */
+    @Builder.Default
+    private final long topicIdleMillis = DEFAULT_TOPIC_IDLE_MILLIS;
+
+    /**
+     * Maximum number of topics, 0 means no limit.
+     */
+    private final int topicsLimit;
+
+    /**
+     * How often idle clients and topics are looked for.
+     */
+    @Builder.Default
+    private final long evictionIntervalMillis = DEFAULT_EVICTION_INTERVAL_MILLIS;
+
+    /**
+     * Number of threads running topics, 0 runs topics on the event loops of their clients.
+     */
+    private final int topicShards;
+
+    /**
+     * Keeps in-memory history in direct memory slabs instead of heap objects.
+     */
+    private final boolean offHeapHistory;
+
+    @Builder.Default
+    private final int historySlabBytes = OffHeapHistory.DEFAULT_SLAB_BYTES;
+
+    /**
+     * Bytes of in-heap history shared by all topics, 0 limits topics only by message count.
+     * Ignored when history is persistent or off-heap.
+     */
+    private final long historyBudgetBytes;
+
+    /**
+     * Topic history isn't trimmed below this amount of bytes because of other topics.
+     */
+    private final long historyMinShareBytes;
+
+    /**
+     * Topic history never retains more bytes than this, 0 means the whole budget.
+     */
+    private final long historyMaxShareBytes;
+
+    /**
+     * Topic history reports this many messages to the shared budget at once, every topic may keep up to
+     * {@code historyBudgetBatch - 1} messages which are not counted by the budget.
+     */
+    @Builder.Default
+    private final int historyBudgetBatch = HistoryBudget.DEFAULT_BATCH_SIZE;
+
+    /**
+     * Publish rate of a single client.
+     */
+    @Builder.Default
+    private final RateLimit clientRateLimit = RateLimit.UNLIMITED;
+
+    /**
+     * Publish rate of a topic summed over all its publishers.
+     */
+    @Builder.Default
+    private final RateLimit topicRateLimit = RateLimit.UNLIMITED;
+
+    /**
+     * Topic rate limits overriding {@link #topicRateLimit}.
+     */
+    @Singular
+    private final Map<String, RateLimit> topicRateLimits;
+
+    /**
+     * Indexes topic histories, so clients can search them.
+     */
+    private final boolean searchIndex;
+
+    /**
+     * Cluster link address of this node in {@code host:port} format, {@code null} runs a standalone server.
+     */
+    private final String clusterNode;
+
+    /**
+     * Cluster link addresses of other nodes.
+     */
+    @Singular
+    private final List<String> clusterPeers;
+
+    /**
+     * Settings of the persistent topic log, {@code null} keeps history only in heap.
+     */
+    private final LogSettings log;
+
+    /**
+     * Directory of warm-restart snapshots, {@code null} starts every time with empty topics.
+     */
+    private final Path snapshotDirectory;
+
+    /**
+     * How often snapshot is written while server runs, 0 writes it only on shutdown.
+     */
+    @Builder.Default
+    private final long snapshotIntervalMillis = DEFAULT_SNAPSHOT_INTERVAL_MILLIS;
+
+    /**
+     * Number of files written and loaded in parallel, 0 means one per available processor.
+     */
+    private final int snapshotChunks;
+}
@@ -0,0 +1,222 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.handler.flush.FlushConsolidationHandler;
+import org.marsofandrew.chat.core.dispatch.OverflowPolicy;
+import org.marsofandrew.chat.core.offheap.OffHeapHistory;
+import org.marsofandrew.chat.core.persistence.LogSettings;
+import org.marsofandrew.chat.core.utils.HistoryBudget;
+import org.marsofandrew.chat.core.utils.RateLimit;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Builds {@link ServerConfig} from command line.
+ * <p>
+ * Arguments are either legacy {@code <port> <messageLimit>} or {@code --name=value} options,
+ * {@code --config=file} loads options from a properties file. Command line options override the file,
+ * options given nowhere are taken from {@code chat.<name>} system properties and then from defaults.
+ */
+public final class ServerConfigParser {
+
+    private static final String PREFIX = "--";
+    private static final String SYSTEM_PREFIX = "chat.";
+
+    private final Properties options = new Properties();
+    private final Properties system;
+
+    private ServerConfigParser(Properties system) {
+        this.system = system;
+    }
+
+    public static ServerConfig parse(String[] args) throws IOException {
+        return parse(args, System.getProperties());
+    }
+
+    /**
+     * @throws IllegalArgumentException when arguments are malformed or required option is missing
+     */
+    static ServerConfig parse(String[] args, Properties system) throws IOException {
+        var parser = new ServerConfigParser(system);
+        parser.read(args);
+        return parser.build();
+    }
+
+    private void read(String[] args) throws IOException {
+        List<String> positional = new ArrayList<>();
+        Properties cli = new Properties();
+        for (String arg : args) {
+            if (!arg.startsWith(PREFIX)) {
+                positional.add(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Option " + arg + " should be in --name=value format");
+            }
+            cli.setProperty(arg.substring(PREFIX.length(), separator), arg.substring(separator + 1));
+        }
+        String file = cli.getProperty("config");
+        if (file != null) {
+            try (Reader reader = Files.newBufferedReader(Path.of(file))) {
+                options.load(reader);
+            }
+        }
+        if (positional.size() == 2) {
+            options.setProperty("port", positional.get(0));
+            options.setProperty("messageLimit", positional.get(1));
+        } else if (!positional.isEmpty()) {
+            throw new IllegalArgumentException("Need 2 parameters port and message limit");
+        }
+        options.putAll(cli);
+    }
+
+    private ServerConfig build() {
+        return ServerConfig.builder()
+                .port(requiredInt("port"))
+                .messageLimit(requiredInt("messageLimit"))
+                .clientsPerChannelLimit(getInt("clientsPerChannelLimit", ServerConfig.DEFAULT_CLIENTS_LIMIT))
+                .sequencePrefix(getBoolean("sequencePrefix", false))
+                .binaryPort(getInt("binaryPort", 0))
+                .binaryMaxFrameBytes(getInt("binaryMaxFrameBytes", BinaryProtocol.DEFAULT_MAX_FRAME_BYTES))
+                .webSocketPort(getInt("webSocketPort", 0))
+                .webSocketPath(get("webSocketPath", ServerConfig.DEFAULT_WEB_SOCKET_PATH))
+                .webSocketMaxFrameBytes(getInt("webSocketMaxFrameBytes",
+                        ServerConfig.DEFAULT_WEB_SOCKET_MAX_FRAME_BYTES))
+                .transport(Transport.valueOf(get("transport", Transport.AUTO.name()).toUpperCase(Locale.ROOT)))
+                .bossThreads(getInt("bossThreads", 0))
+                .workerThreads(getInt("workerThreads", 0))
+                .soBacklog(getInt("soBacklog", ServerConfig.DEFAULT_SO_BACKLOG))
+                .reusePort(getBoolean("reusePort", false))
+                .acceptors(getInt("acceptors", 1))
+                .tcpNoDelay(getBoolean("tcpNoDelay", true))
+                .pooledAllocator(getBoolean("pooledAllocator", true))
+                .writeBufferLowWaterMark(getInt("writeBufferLowWaterMark", ServerConfig.DEFAULT_LOW_WATER_MARK))
+                .writeBufferHighWaterMark(getInt("writeBufferHighWaterMark", ServerConfig.DEFAULT_HIGH_WATER_MARK))
+                .flushConsolidationLimit(getInt("flushConsolidationLimit",
+                        FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES))
+                .mailboxCapacity(getInt("mailboxCapacity", ServerConfig.DEFAULT_MAILBOX_CAPACITY))
+                .overflowPolicy(OverflowPolicy.valueOf(get("overflowPolicy", OverflowPolicy.DROP_OLDEST.name())))
+                .unwritableTimeoutMillis(getLong("unwritableTimeoutMillis",
+                        ServerConfig.DEFAULT_UNWRITABLE_TIMEOUT_MILLIS))
+                .topicShards(getInt("topicShards", 0))
+                .clientIdleMillis(getLong("clientIdleMillis", ServerConfig.DEFAULT_CLIENT_IDLE_MILLIS))
+                .topicIdleMillis(getLong("topicIdleMillis", ServerConfig.DEFAULT_TOPIC_IDLE_MILLIS))
+                .topicsLimit(getInt("topicsLimit", 0))
+                .offHeapHistory(getBoolean("historyOffHeap", false))
+                .historySlabBytes(getInt("historySlabBytes", OffHeapHistory.DEFAULT_SLAB_BYTES))
+                .historyBudgetBytes(getLong("historyBudgetBytes", 0))
+                .historyMinShareBytes(getLong("historyMinShareBytes", 0))
+                .historyMaxShareBytes(getLong("historyMaxShareBytes", 0))
+                .historyBudgetBatch(getInt("historyBudgetBatch", HistoryBudget.DEFAULT_BATCH_SIZE))
+                .evictionIntervalMillis(getLong("evictionIntervalMillis",
+                        ServerConfig.DEFAULT_EVICTION_INTERVAL_MILLIS))
+                .clientRateLimit(RateLimit.parse(get("clientRateLimit", "0")))
+                .topicRateLimit(RateLimit.parse(get("topicRateLimit", "0")))
+                .topicRateLimits(topicRateLimits())
+                .searchIndex(getBoolean("searchIndex", false))
+                .clusterNode(get("clusterNode", null))
+                .clusterPeers(list("clusterPeers"))
+                .log(logSettings())
+                .snapshotDirectory(path("snapshotDirectory"))
+                .snapshotIntervalMillis(getLong("snapshotIntervalMillis",
+                        ServerConfig.DEFAULT_SNAPSHOT_INTERVAL_MILLIS))
+                .snapshotChunks(getInt("snapshotChunks", 0))
+                .build();
+    }
+
+    /**
+     * Per-topic overrides are given as {@code topicRateLimit.<topic>=<permitsPerSecond>[:<burst>]}.
+     */
+    private Map<String, RateLimit> topicRateLimits() {
+        String prefix = "topicRateLimit.";
+        Map<String, RateLimit> result = new HashMap<>();
+        for (String name : system.stringPropertyNames()) {
+            if (name.startsWith(SYSTEM_PREFIX + prefix)) {
+                result.put(name.substring(SYSTEM_PREFIX.length() + prefix.length()),
+                        RateLimit.parse(system.getProperty(name).trim()));
+            }
+        }
+        for (String name : options.stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                result.put(name.substring(prefix.length()), RateLimit.parse(options.getProperty(name).trim()));
+            }
+        }
+        return result;
+    }
+
+    private LogSettings logSettings() {
+        String directory = get("logDirectory", null);
+        if (directory == null) {
+            return null;
+        }
+        return LogSettings.builder()
+                .directory(Path.of(directory))
+                .segmentBytes(getInt("logSegmentBytes", LogSettings.DEFAULT_SEGMENT_BYTES))
+                .retentionBytes(getLong("logRetentionBytes", LogSettings.DEFAULT_RETENTION_BYTES))
+                .retentionMillis(getLong("logRetentionMillis", LogSettings.DEFAULT_RETENTION_MILLIS))
+                .build();
+    }
+
+    private String get(String name, String defaultValue) {
+        String value = options.getProperty(name);
+        if (value == null) {
+            value = system.getProperty(SYSTEM_PREFIX + name, defaultValue);
+        }
+        return value == null ? null : value.trim();
+    }
+
+    private Path path(String name) {
+        String value = get(name, null);
+        return value == null || value.isEmpty() ? null : Path.of(value);
+    }
+
+    private List<String> list(String name) {
+        String value = get(name, null);
+        if (value == null || value.isEmpty()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(",")).map(String::trim).filter(item -> !item.isEmpty()).toList();
+    }
+
+    private int requiredInt(String name) {
+        if (get(name, null) == null) {
+            throw new IllegalArgumentException("Option " + name + " is required");
+        }
+        return getInt(name, 0);
+    }
+
+    private int getInt(String name, int defaultValue) {
+        long value = getLong(name, defaultValue);
+        if (value != (int) value) {
+            throw new IllegalArgumentException(name + " is out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("incorrect format of " + name + " number: " + value);
+        }
+    }
+
+    private boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
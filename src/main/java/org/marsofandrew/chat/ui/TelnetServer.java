@@ -2,19 +2,50 @@ package org.marsofandrew.chat.ui;
 
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import io.netty.handler.codec.Delimiters;
-import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.log4j.LogManager;
+import org.marsofandrew.chat.core.ChatLineEncoder;
+import org.marsofandrew.chat.core.Clients;
+import org.marsofandrew.chat.core.HistoryFactory;
+import org.marsofandrew.chat.core.TopicRouter;
 import org.marsofandrew.chat.core.TopicService;
+import org.marsofandrew.chat.core.TopicSettings;
+import org.marsofandrew.chat.core.cluster.ClusterNode;
+import org.marsofandrew.chat.core.cluster.ClusterSettings;
+import org.marsofandrew.chat.core.logging.BoundedAsyncAppender;
+import org.marsofandrew.chat.core.offheap.OffHeapHistory;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+import org.marsofandrew.chat.core.persistence.PersistentHistory;
+import org.marsofandrew.chat.core.snapshot.SnapshotStore;
+import org.marsofandrew.chat.core.utils.HistoryBudget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This server is based on netty telnet server example with more detailed implementation.
@@ -23,45 +54,177 @@ import org.marsofandrew.chat.core.TopicService;
 @RequiredArgsConstructor
 public class TelnetServer {
 
-    private static final int DEFAULT_CLIENTS_LIMIT = 10;
-    private final int port;
-
-    private final int messageLimit;
-
-    private final int clientsPerChanelLimit;
+    private final ServerConfig config;
+    private HistoryBudget historyBudget;
 
+    public TelnetServer(int port, int messageLimit, int clientsPerChanelLimit) {
+        this(ServerConfig.builder()
+                .port(port)
+                .messageLimit(messageLimit)
+                .clientsPerChannelLimit(clientsPerChanelLimit)
+                .build());
+    }
 
     public void run() throws Exception {
-        log.info("Server started");
-        final EventLoopGroup bossGroup = new NioEventLoopGroup();
-        final EventLoopGroup workerGroup = new NioEventLoopGroup();
+        Transport transport = config.getTransport().resolve();
+        if (transport != config.getTransport() && config.getTransport() != Transport.AUTO) {
+            log.warn("Transport {} is not available, falling back to {}", config.getTransport(), transport,
+                    Epoll.unavailabilityCause());
+        }
+        int acceptors = config.isReusePort() ? Math.max(1, config.getAcceptors()) : 1;
+        if (acceptors > 1 && !transport.supportsReusePort()) {
+            log.warn("SO_REUSEPORT is not supported by {} transport, using a single acceptor", transport);
+            acceptors = 1;
+        }
+        int bossThreads = config.getBossThreads() > 0 ? config.getBossThreads() : acceptors;
+        log.info("Server started with {} transport, {} acceptors", transport, acceptors);
+        final EventLoopGroup bossGroup = transport.newGroup(bossThreads);
+        final EventLoopGroup workerGroup = transport.newGroup(config.getWorkerThreads());
         try  {
-            TopicService<String> topicService =
-                    new TopicService<>(messageLimit, clientsPerChanelLimit, clientsPerChanelLimit);
+            ClusterNode<String> cluster = config.getClusterNode() == null ? null : new ClusterNode<>(
+                    ClusterSettings.builder()
+                            .node(config.getClusterNode())
+                            .peers(config.getClusterPeers())
+                            .build(),
+                    MessageCodec.UTF_8, bossGroup, workerGroup, transport.serverChannel(), transport.socketChannel());
+            TopicService<String> topicService = new TopicService<>(TopicSettings.builder()
+                    .messageLimit(config.getMessageLimit())
+                    .publishersLimit(config.getClientsPerChannelLimit())
+                    .subscribersLimit(config.getClientsPerChannelLimit())
+                    .mailboxCapacity(config.getMailboxCapacity())
+                    .overflowPolicy(config.getOverflowPolicy())
+                    .unwritableTimeoutMillis(config.getUnwritableTimeoutMillis())
+                    .shards(config.getTopicShards())
+                    .topicIdleMillis(config.getTopicIdleMillis())
+                    .topicsLimit(config.getTopicsLimit())
+                    .clientRateLimit(config.getClientRateLimit())
+                    .topicRateLimit(config.getTopicRateLimit())
+                    .topicRateLimits(config.getTopicRateLimits())
+                    .searchIndex(config.isSearchIndex())
+                    .build(), historyFactory(), cluster == null ? TopicRouter.local() : cluster);
+            SnapshotStore<String> snapshots = snapshotStore();
+            if (snapshots != null) {
+                snapshots.load(topicService, (user, password) -> Clients.restore(topicService, user, password));
+            }
+            ScheduledExecutorService snapshotWriter = scheduleSnapshots(snapshots, topicService);
+            if (cluster != null) {
+                cluster.start(topicService);
+            }
+            ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+            registerMetrics(topicService, workerGroup, channels);
+            scheduleEviction(topicService, workerGroup);
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannel())
+                    .option(ChannelOption.SO_BACKLOG, config.getSoBacklog())
+                    .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay())
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                            config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
                     .childHandler(new ChannelInitializer<SocketChannel>(){
 
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
+                            channels.add(ch);
                             ChannelPipeline pipeline = ch.pipeline();
+                            if (config.getFlushConsolidationLimit() > 0) {
+                                pipeline.addLast(new FlushConsolidationHandler(
+                                        config.getFlushConsolidationLimit()));
+                            }
 
                             pipeline.addLast(new DelimiterBasedFrameDecoder(
                                             8192, Delimiters.lineDelimiter()),
-                                    new StringDecoder(),
+                                    new CommandDecoder(),
                                     new StringEncoder(),
-                                    new TelnetServerHandler(topicService));
+                                    new TelnetServerHandler(topicService, config.isSequencePrefix()
+                                            ? ChatLineEncoder.SEQUENCED : ChatLineEncoder.INSTANCE));
                         }
                     });
             Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
                 public void run() {
-                    bossGroup.shutdownGracefully();
-                    workerGroup.shutdownGracefully();
+                    if (cluster != null) {
+                        cluster.close();
+                    }
+                    if (snapshotWriter != null) {
+                        snapshotWriter.shutdownNow();
+                    }
+                    var bossTerminated = bossGroup.shutdownGracefully();
+                    var workerTerminated = workerGroup.shutdownGracefully();
+                    // clients may publish until event loops terminate, the snapshot has to see all of it
+                    bossTerminated.syncUninterruptibly();
+                    workerTerminated.syncUninterruptibly();
+                    topicService.shutdownExecutors();
+                    if (snapshots != null) {
+                        writeSnapshot(snapshots, topicService);
+                    }
+                    topicService.close();
+                    LogManager.shutdown();
                 }
             }));
 
-            b.bind(port).sync().channel().closeFuture().sync();
+            if (config.isPooledAllocator()) {
+                b.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+            }
+            if (acceptors > 1) {
+                b.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+
+            List<Channel> serverChannels = new ArrayList<>(acceptors);
+            for (int i = 0; i < acceptors; i++) {
+                serverChannels.add(b.bind(config.getPort()).sync().channel());
+            }
+            if (config.getBinaryPort() > 0) {
+                ServerBootstrap binary = b.clone().childHandler(new ChannelInitializer<SocketChannel>() {
+
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        channels.add(ch);
+                        ChannelPipeline pipeline = ch.pipeline();
+                        if (config.getFlushConsolidationLimit() > 0) {
+                            pipeline.addLast(new FlushConsolidationHandler(config.getFlushConsolidationLimit()));
+                        }
+                        pipeline.addLast(BinaryProtocol.frameDecoder(config.getBinaryMaxFrameBytes()),
+                                new BinaryCommandDecoder(),
+                                new BinaryReplyEncoder(),
+                                new TelnetServerHandler(topicService, BinaryMessageEncoder.INSTANCE));
+                    }
+                });
+                for (int i = 0; i < acceptors; i++) {
+                    serverChannels.add(binary.bind(config.getBinaryPort()).sync().channel());
+                }
+                log.info("Binary protocol listens on port {}", config.getBinaryPort());
+            }
+            if (config.getWebSocketPort() > 0) {
+                ServerBootstrap webSocket = b.clone().childHandler(new ChannelInitializer<SocketChannel>() {
+
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        channels.add(ch);
+                        ChannelPipeline pipeline = ch.pipeline();
+                        if (config.getFlushConsolidationLimit() > 0) {
+                            pipeline.addLast(new FlushConsolidationHandler(config.getFlushConsolidationLimit()));
+                        }
+                        pipeline.addLast(new HttpServerCodec(),
+                                new HttpObjectAggregator(config.getWebSocketMaxFrameBytes()),
+                                new WebSocketServerProtocolHandler(config.getWebSocketPath(), null, false,
+                                        config.getWebSocketMaxFrameBytes()),
+                                new WebSocketFrameAggregator(config.getWebSocketMaxFrameBytes()),
+                                new WebSocketLineDecoder(),
+                                new CommandDecoder(),
+                                new WebSocketReplyEncoder(),
+                                new TelnetServerHandler(topicService, config.isSequencePrefix()
+                                        ? WebSocketMessageEncoder.SEQUENCED : WebSocketMessageEncoder.INSTANCE));
+                    }
+                });
+                for (int i = 0; i < acceptors; i++) {
+                    serverChannels.add(webSocket.bind(config.getWebSocketPort()).sync().channel());
+                }
+                log.info("WebSocket clients are served on port {} at {}", config.getWebSocketPort(),
+                        config.getWebSocketPath());
+            }
+            for (Channel serverChannel : serverChannels) {
+                serverChannel.closeFuture().sync();
+            }
 
         } finally {
             bossGroup.shutdownGracefully();
@@ -69,27 +232,99 @@ public class TelnetServer {
         }
     }
 
-    public static void main(String[] args) throws Exception {
-        if (args.length != 2){
-            System.err.println("Need 2 parameters port and message limit");
-            System.exit(1);
+    private HistoryFactory<String> historyFactory() {
+        if (config.getLog() != null) {
+            return PersistentHistory.factory(config.getLog(), MessageCodec.UTF_8);
+        }
+        if (config.isOffHeapHistory()) {
+            return OffHeapHistory.factory(MessageCodec.UTF_8, config.getHistorySlabBytes());
+        }
+        if (config.getHistoryBudgetBytes() > 0) {
+            historyBudget = new HistoryBudget(config.getHistoryBudgetBytes(), config.getHistoryMinShareBytes(),
+                    config.getHistoryMaxShareBytes() > 0 ? config.getHistoryMaxShareBytes()
+                            : config.getHistoryBudgetBytes(), config.getHistoryBudgetBatch());
+            return HistoryFactory.budgeted(historyBudget);
         }
-        int port = -1;
+        return HistoryFactory.inMemory();
+    }
+
+    private SnapshotStore<String> snapshotStore() {
+        if (config.getSnapshotDirectory() == null) {
+            return null;
+        }
+        int chunks = config.getSnapshotChunks() > 0 ? config.getSnapshotChunks()
+                : Runtime.getRuntime().availableProcessors();
+        // persistent log restores histories by itself
+        return new SnapshotStore<>(config.getSnapshotDirectory(), MessageCodec.UTF_8, chunks,
+                config.getLog() == null);
+    }
+
+    private ScheduledExecutorService scheduleSnapshots(SnapshotStore<String> snapshots,
+                                                       TopicService<String> topicService) {
+        long interval = config.getSnapshotIntervalMillis();
+        if (snapshots == null || interval <= 0) {
+            return null;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> writeSnapshot(snapshots, topicService),
+                interval, interval, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    private static void writeSnapshot(SnapshotStore<String> snapshots, TopicService<String> topicService) {
         try {
-            port = Integer.parseInt(args[0]);
-        } catch (NumberFormatException e){
-            System.err.println("incorrect format of port number");
-            System.exit(1);
+            snapshots.write(topicService, Clients.credentials());
+        } catch (Exception e) {
+            log.error("Failed to write snapshot", e);
         }
+    }
+
+    private void scheduleEviction(TopicService<String> topicService, EventLoopGroup workerGroup) {
+        long interval = config.getEvictionIntervalMillis();
+        workerGroup.scheduleAtFixedRate(() -> {
+            if (config.getClientIdleMillis() > 0) {
+                Clients.evictIdle(config.getClientIdleMillis());
+            }
+            topicService.evictIdle();
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void registerMetrics(TopicService<String> topicService, EventLoopGroup workerGroup,
+                                        ChannelGroup channels) {
+        var metrics = topicService.getMetrics();
+        var dispatcher = topicService.getDispatcher();
+        metrics.gauge("connectedClients", Clients::connectedCount);
+        metrics.gauge("registeredClients", Clients::registeredCount);
+        metrics.gauge("evictedClients", Clients::evictedCount);
+        metrics.gauge("evictedTopics", topicService::getEvictedTopics);
+        metrics.gauge("historyBytes", topicService::getHistoryBytes);
+        if (historyBudget != null) {
+            metrics.gauge("historyBudgetBytes", historyBudget::getTotalBytes);
+            metrics.gauge("historyBudgetTrimmed", historyBudget::getTrimmed);
+        }
+        metrics.gauge("channels", channels::size);
+        metrics.gauge("droppedLogEvents", BoundedAsyncAppender::droppedEvents);
+        metrics.gauge("droppedOldest", dispatcher::getDroppedOldest);
+        metrics.gauge("droppedNewest", dispatcher::getDroppedNewest);
+        metrics.gauge("slowDisconnects", dispatcher::getDisconnects);
+        metrics.gauge("throttledMessages", dispatcher::getThrottled);
+        metrics.eventLoops("worker", workerGroup, channels);
+        metrics.exposeOverJmx();
+    }
 
-        int messageLimit = -1;
+    public static void main(String[] args) throws Exception {
+        ServerConfig config;
         try {
-            messageLimit = Integer.parseInt(args[1]);
-        } catch (NumberFormatException e){
-            System.err.println("incorrect format of messageLimit number");
+            config = ServerConfigParser.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             System.exit(1);
+            return;
         }
-
-        new TelnetServer(port, messageLimit, DEFAULT_CLIENTS_LIMIT).run();
+        new TelnetServer(config).run();
     }
-}
\ No newline at end of file
+}
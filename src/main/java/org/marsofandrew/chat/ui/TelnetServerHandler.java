@@ -3,34 +3,63 @@ package org.marsofandrew.chat.ui;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.marsofandrew.chat.core.ChatLineEncoder;
 import org.marsofandrew.chat.core.Clients;
 import org.marsofandrew.chat.core.TopicService;
 import org.marsofandrew.chat.core.exception.ClientNotJoinedToChannelException;
 import org.marsofandrew.chat.core.exception.InvalidPasswordException;
+import org.marsofandrew.chat.core.exception.RateLimitExceededException;
+import org.marsofandrew.chat.core.model.MessageEncoder;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Map;
-import java.util.function.BiConsumer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Handles a server-side channel.
+ * Handles a server-side channel. Expects {@link Command}s and chat lines decoded by {@link CommandDecoder}
+ * or {@link BinaryCommandDecoder}, replies are written as strings.
  */
 @Slf4j
-@RequiredArgsConstructor
-public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
+public class TelnetServerHandler extends SimpleChannelInboundHandler<Object> {
 
-    private final Map<String, BiConsumer<List<String>, Channel>> COMMANDS = Map.of(
-            "/login", this::login,
-            "/leave", this::leave,
-            "/join", this::join,
-            "/users", this::getUsers);
+    private static final int USERS_PAGE_SIZE = 50;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
 
     private final TopicService<String> topicService;
+    private final MessageEncoder<String> encoder;
+    private final Executor loginExecutor;
+    // input received while the password is verified, it is handled after the login in order
+    private final Queue<Object> deferred = new ArrayDeque<>();
     private Clients.Client client;
+    private boolean throttled;
+    private boolean loginPending;
+
+    public TelnetServerHandler(TopicService<String> topicService) {
+        this(topicService, ChatLineEncoder.INSTANCE);
+    }
+
+    /**
+     * @param encoder renders messages delivered to the client in the protocol of the channel.
+     */
+    public TelnetServerHandler(TopicService<String> topicService, MessageEncoder<String> encoder) {
+        this(topicService, encoder, Clients.loginExecutor());
+    }
+
+    /**
+     * @param loginExecutor verifies passwords, so hashing doesn't run on the event loop.
+     */
+    public TelnetServerHandler(TopicService<String> topicService, MessageEncoder<String> encoder,
+                               Executor loginExecutor) {
+        this.topicService = topicService;
+        this.encoder = encoder;
+        this.loginExecutor = loginExecutor;
+    }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
@@ -39,36 +68,71 @@ public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, String msg) {
-        if (msg.startsWith("/")) {
-            var params = msg.split(" ");
-            log.info("Receive command: {}", params[0]);
-            var command = COMMANDS.get(params[0]);
-            if (command == null) {
-                ctx.writeAndFlush("UNKNOWN OPERATION\n");
-                return;
-            }
-            List<String> args = new ArrayList<>(Arrays.asList(params).subList(1, params.length));
-            command.accept(args, ctx.channel());
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (client != null) {
+            client.writabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (client != null) {
+            client.channelClosed(ctx.channel());
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        if (loginPending) {
+            deferred.add(msg);
             return;
         }
+        handle(msg, ctx.channel());
+    }
 
-        if (msg.startsWith("\\")) {
-            msg = msg.substring(1);
+    private void handle(Object msg, Channel channel) {
+        if (msg instanceof Command command) {
+            log.debug("Receive command: {}", command.type());
+            handleCommand(command, channel);
+            return;
         }
+
         if (client != null) {
             try {
-                client.sendMessage(msg);
+                client.sendMessage((String) msg);
+                throttled = false;
             } catch (ClientNotJoinedToChannelException err) {
-                ctx.writeAndFlush("Client hasn't joined to any channel\n");
+                channel.writeAndFlush("Client hasn't joined to any channel\n");
+            } catch (RateLimitExceededException err) {
+                // reply once per throttled burst, so throttling doesn't turn into egress itself
+                if (!throttled) {
+                    throttled = true;
+                    channel.writeAndFlush(String.format("THROTTLED: %s, messages are dropped\n", err.getMessage()));
+                }
             }
         } else {
-            ctx.writeAndFlush("You could send messages after you login\n");
+            channel.writeAndFlush("You could send messages after you login\n");
         }
     }
 
-    private void login(List<String> args, Channel channel) {
-        if (args.size() != 2) {
+    private void handleCommand(Command command, Channel channel) {
+        String[] args = command.args();
+        switch (command.type()) {
+            case LOGIN -> login(args, channel);
+            case LEAVE -> leave(args, channel);
+            case JOIN -> join(args, channel);
+            case RESUME -> resume(args, channel);
+            case USERS -> getUsers(args, channel);
+            case STATS -> stats(args, channel);
+            case SEARCH -> search(args, channel);
+            case UNKNOWN -> channel.writeAndFlush("UNKNOWN OPERATION\n");
+        }
+    }
+
+    private void login(String[] args, Channel channel) {
+        if (args.length != 2) {
             channel.writeAndFlush("/login command needs 2 arguments {login} {password}\n");
             return;
         }
@@ -77,15 +141,46 @@ public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
             channel.writeAndFlush("You should leave before login to a new client\n");
             return;
         }
+        CompletableFuture<Clients.Client> login;
         try {
-            client = Clients.login(topicService, args.get(0), args.get(1))
-                    .setChannel(channel);
-        } catch (InvalidPasswordException exception) {
+            login = Clients.login(topicService, args[0], args[1], loginExecutor);
+        } catch (RejectedExecutionException exception) {
+            channel.writeAndFlush("Server is busy, try to login later\n");
+            return;
+        }
+        loginPending = true;
+        channel.config().setAutoRead(false);
+        login.whenCompleteAsync((result, error) -> loggedIn(result, error, channel), channel.eventLoop());
+    }
+
+    private void loggedIn(Clients.Client result, Throwable error, Channel channel) {
+        loginPending = false;
+        if (!channel.isActive()) {
+            deferred.clear();
+            return;
+        }
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        if (cause == null) {
+            client = result.setChannel(channel, encoder);
+        } else if (cause instanceof InvalidPasswordException) {
             channel.writeAndFlush("Invalid password\n");
+        } else {
+            log.error("Failed to login", cause);
+            channel.writeAndFlush("Failed to login\n");
+        }
+        try {
+            while (!loginPending && !deferred.isEmpty()) {
+                handle(deferred.poll(), channel);
+            }
+        } catch (Exception e) {
+            channel.pipeline().fireExceptionCaught(e);
+        }
+        if (!loginPending) {
+            channel.config().setAutoRead(true);
         }
     }
 
-    private void leave(List<String> ign, Channel channel) {
+    private void leave(String[] ign, Channel channel) {
         if (client == null) {
             printNotLoginMessage(channel);
             return;
@@ -94,26 +189,122 @@ public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
         client = null;
     }
 
-    private void getUsers(List<String> ign, Channel channel) {
+    private void getUsers(String[] args, Channel channel) {
+        if (args.length > 1) {
+            channel.writeAndFlush("/users command has at most 1 argument {page}\n");
+            return;
+        }
         if (client == null) {
             printNotLoginMessage(channel);
             return;
         }
+        int page;
+        try {
+            page = args.length == 0 ? 1 : Integer.parseInt(args[0]);
+        } catch (NumberFormatException exception) {
+            channel.writeAndFlush("Page should be a number\n");
+            return;
+        }
         try {
-            client.getUsers().forEach(user -> channel.writeAndFlush(String.format("%s\n", user)));
+            client.getUsers().thenAccept(users -> channel.writeAndFlush(usersPage(users, page)));
         } catch (ClientNotJoinedToChannelException exception){
             channel.writeAndFlush("You should join channel to get users\n");
         }
 
     }
 
-    private void join(List<String> args, Channel channel) {
-        if (args.size() != 1) {
+    /**
+     * Whole page is written at once, the last line tells about other pages.
+     */
+    private static String usersPage(List<String> users, int page) {
+        int pages = Math.max(1, (users.size() + USERS_PAGE_SIZE - 1) / USERS_PAGE_SIZE);
+        if (page < 1 || page > pages) {
+            return String.format("There are only %d pages of users\n", pages);
+        }
+        var result = new StringBuilder();
+        int end = Math.min(users.size(), page * USERS_PAGE_SIZE);
+        for (int i = (page - 1) * USERS_PAGE_SIZE; i < end; i++) {
+            result.append(users.get(i)).append('\n');
+        }
+        if (pages > 1) {
+            result.append(String.format("Page %d of %d\n", page, pages));
+        }
+        return result.toString();
+    }
+
+    private void stats(String[] args, Channel channel) {
+        if (args.length > 1) {
+            channel.writeAndFlush("/stats command has at most 1 argument {topic}\n");
+            return;
+        }
+        var metrics = topicService.getMetrics();
+        var lines = args.length == 0 ? metrics.report() : metrics.report(args[0]);
+        if (lines.isEmpty()) {
+            channel.writeAndFlush("Unknown topic\n");
+            return;
+        }
+        channel.writeAndFlush(String.join("\n", lines) + "\n");
+    }
+
+    private void search(String[] args, Channel channel) {
+        if (args.length < 1 || args.length > 2) {
+            channel.writeAndFlush("/search command needs 1 or 2 arguments {term} [limit]\n");
+            return;
+        }
+        if (client == null) {
+            printNotLoginMessage(channel);
+            return;
+        }
+        if (!topicService.getSettings().isSearchIndex()) {
+            channel.writeAndFlush("Search is disabled\n");
+            return;
+        }
+        int limit;
+        try {
+            limit = args.length == 1 ? DEFAULT_SEARCH_LIMIT : Integer.parseInt(args[1]);
+        } catch (NumberFormatException exception) {
+            channel.writeAndFlush("Limit should be a number\n");
+            return;
+        }
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            channel.writeAndFlush(String.format("Limit should be from 1 to %d\n", MAX_SEARCH_LIMIT));
+            return;
+        }
+        try {
+            client.search(args[0], limit)
+                    .thenAccept(found -> channel.writeAndFlush(String.format("Found %d messages\n", found)));
+        } catch (ClientNotJoinedToChannelException exception) {
+            channel.writeAndFlush("You should join channel to search\n");
+        }
+    }
+
+    private void join(String[] args, Channel channel) {
+        if (args.length != 1) {
             channel.writeAndFlush("/join command has only 1 argument\n");
             return;
         }
-        client.setChannel(channel)
-                .joinChannel(args.get(0));
+        client.setChannel(channel, encoder)
+                .joinChannel(args[0]);
+    }
+
+    private void resume(String[] args, Channel channel) {
+        if (args.length != 2) {
+            channel.writeAndFlush("/resume command needs 2 arguments {topic} {last seen sequence}\n");
+            return;
+        }
+        if (client == null) {
+            printNotLoginMessage(channel);
+            return;
+        }
+        long lastSequence;
+        try {
+            lastSequence = Long.parseLong(args[1]);
+        } catch (NumberFormatException exception) {
+            channel.writeAndFlush("Sequence should be a number\n");
+            return;
+        }
+        client.setChannel(channel, encoder)
+                .resumeChannel(args[0], lastSequence);
     }
 
     private static void printNotLoginMessage(Channel channel) {
@@ -0,0 +1,57 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * Netty transport used by {@link TelnetServer}.
+ */
+public enum Transport {
+
+    /**
+     * Native epoll when it is available, NIO otherwise.
+     */
+    AUTO,
+    EPOLL,
+    NIO;
+
+    /**
+     * @return transport which can actually be used on this platform
+     */
+    public Transport resolve() {
+        if (this == NIO || !Epoll.isAvailable()) {
+            return NIO;
+        }
+        return EPOLL;
+    }
+
+    /**
+     * @param threads number of event loops, 0 means netty default
+     */
+    public EventLoopGroup newGroup(int threads) {
+        return resolve() == EPOLL ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+
+    public Class<? extends ServerChannel> serverChannel() {
+        return resolve() == EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Class<? extends Channel> socketChannel() {
+        return resolve() == EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * @return whether several server channels can be bound to the same port
+     */
+    public boolean supportsReusePort() {
+        return resolve() == EPOLL;
+    }
+}
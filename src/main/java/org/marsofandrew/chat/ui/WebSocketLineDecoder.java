@@ -0,0 +1,45 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.List;
+
+/**
+ * Splits data frames into lines for {@link CommandDecoder}, so WebSocket clients use the telnet command set.
+ * Lines are slices of the frame content, empty lines are skipped.
+ */
+public class WebSocketLineDecoder extends MessageToMessageDecoder<WebSocketFrame> {
+
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    @Override
+    public boolean acceptInboundMessage(Object msg) {
+        return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+        ByteBuf content = frame.content();
+        int end = content.writerIndex();
+        for (int start = content.readerIndex(); start < end; ) {
+            int lineEnd = content.indexOf(start, end, NEW_LINE);
+            int next = lineEnd < 0 ? end : lineEnd + 1;
+            if (lineEnd < 0) {
+                lineEnd = end;
+            }
+            if (lineEnd > start && content.getByte(lineEnd - 1) == CARRIAGE_RETURN) {
+                lineEnd--;
+            }
+            if (lineEnd > start) {
+                out.add(content.retainedSlice(start, lineEnd - start));
+            }
+            start = next;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.marsofandrew.chat.core.ChatLineEncoder;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.MessageEncoder;
+
+/**
+ * Renders chat lines into complete text frames, header included. Server frames are never masked,
+ * so the same bytes are valid for every WebSocket client: the single instance is shared by all of them
+ * and a broadcast is framed once like for telnet clients.
+ */
+public final class WebSocketMessageEncoder implements MessageEncoder<String> {
+
+    public static final WebSocketMessageEncoder INSTANCE =
+            new WebSocketMessageEncoder(PooledByteBufAllocator.DEFAULT, false);
+    public static final WebSocketMessageEncoder SEQUENCED =
+            new WebSocketMessageEncoder(PooledByteBufAllocator.DEFAULT, true);
+
+    private static final int FIN_TEXT = 0x81;
+    private static final int MAX_HEADER_BYTES = 10;
+    private static final int SHORT_LENGTH = 126;
+    private static final int LONG_LENGTH = 127;
+
+    private final ByteBufAllocator allocator;
+    private final ChatLineEncoder lines;
+
+    /**
+     * @param sequencePrefix see {@link ChatLineEncoder}.
+     */
+    public WebSocketMessageEncoder(ByteBufAllocator allocator, boolean sequencePrefix) {
+        this.allocator = allocator;
+        this.lines = new ChatLineEncoder(allocator, sequencePrefix);
+    }
+
+    @Override
+    public ByteBuf encode(String topic, Message<String> message) {
+        ByteBuf line = lines.encode(topic, message);
+        // every frame is a single line
+        line.writerIndex(line.writerIndex() - 1);
+        int length = line.readableBytes();
+        ByteBuf header = allocator.directBuffer(MAX_HEADER_BYTES);
+        header.writeByte(FIN_TEXT);
+        if (length < SHORT_LENGTH) {
+            header.writeByte(length);
+        } else if (length <= 0xffff) {
+            header.writeByte(SHORT_LENGTH);
+            header.writeShort(length);
+        } else {
+            header.writeByte(LONG_LENGTH);
+            header.writeLong(length);
+        }
+        return allocator.compositeDirectBuffer(2).addComponents(true, header, line);
+    }
+}
@@ -0,0 +1,21 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+import java.util.List;
+
+/**
+ * Wraps string replies into text frames, the trailing line break is dropped.
+ * Delivered messages are already rendered into frames by {@link WebSocketMessageEncoder} and pass through.
+ */
+public class WebSocketReplyEncoder extends MessageToMessageEncoder<String> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, String reply, List<Object> out) {
+        int end = reply.endsWith("\n") ? reply.length() - 1 : reply.length();
+        out.add(new TextWebSocketFrame(ByteBufUtil.writeUtf8(ctx.alloc(), reply.subSequence(0, end))));
+    }
+}
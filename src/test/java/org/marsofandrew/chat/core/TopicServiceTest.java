@@ -0,0 +1,184 @@
+package org.marsofandrew.chat.core;
+
+import org.junit.jupiter.api.Test;
+import org.marsofandrew.chat.core.exception.TopicClosedException;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.Publisher;
+import org.marsofandrew.chat.core.model.Subscriber;
+import org.marsofandrew.chat.core.utils.exception.OversizeException;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TopicServiceTest {
+
+    private static final int LIMIT = 4;
+
+    private final TopicService<String> target = new TopicService<>(TopicSettings.builder()
+            .messageLimit(10)
+            .publishersLimit(10)
+            .subscribersLimit(10)
+            .topicsLimit(LIMIT)
+            .build());
+
+    @Test
+    void testConcurrentCreatorsNeverExceedTopicsLimit() throws InterruptedException {
+        int threads = 8;
+        int topicsPerThread = 500;
+        AtomicInteger overLimit = new AtomicInteger();
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < topicsPerThread; i++) {
+                        try {
+                            target.getTopic(thread + "-" + i);
+                            created.incrementAndGet();
+                        } catch (OversizeException e) {
+                            // every slot is taken by a topic being created
+                        }
+                        if (target.getTopicCount() > LIMIT) {
+                            overLimit.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        assertEquals(0, overLimit.get());
+        assertEquals(LIMIT, target.getTopicCount());
+        assertEquals(created.get() - LIMIT, target.getEvictedTopics());
+        target.close();
+    }
+
+    @Test
+    void testConcurrentGetOfOneTopicOpensHistoryOnce() throws InterruptedException {
+        AtomicInteger histories = new AtomicInteger();
+        HistoryFactory<String> inMemory = HistoryFactory.inMemory();
+        var service = new TopicService<String>(TopicSettings.builder()
+                .messageLimit(10)
+                .publishersLimit(10)
+                .subscribersLimit(10)
+                .build(), (topic, messageLimit) -> {
+            histories.incrementAndGet();
+            return inMemory.create(topic, messageLimit);
+        });
+        int threads = 8;
+        List<TopicService.Topic<String>> seen = new CopyOnWriteArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    seen.add(service.getTopic("shared"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        assertEquals(1, histories.get());
+        assertEquals(1, service.getTopicCount());
+        assertEquals(threads, seen.size());
+        assertTrue(seen.stream().allMatch(topic -> topic == seen.get(0)));
+        service.close();
+    }
+
+    @Test
+    void testTopicWithMemberIsNotEvicted() {
+        var used = target.getTopic("used");
+        used.registerPublisher(new NamedPublisher("bob")).join();
+        for (int i = 0; i < LIMIT * 2; i++) {
+            target.getTopic("idle-" + i);
+        }
+
+        assertTrue(target.getTopics().contains(used));
+        assertEquals(LIMIT, target.getTopicCount());
+        target.close();
+    }
+
+    @Test
+    void testJoinOfEvictedTopicFails() throws InterruptedException {
+        var evicted = target.getTopic("evicted");
+        // the least recently used topic is evicted first
+        Thread.sleep(5);
+        for (int i = 0; i < LIMIT; i++) {
+            target.getTopic("other-" + i);
+        }
+
+        var failure = assertThrows(CompletionException.class,
+                () -> evicted.registerPublisher(new NamedPublisher("bob")).join());
+        assertTrue(failure.getCause() instanceof TopicClosedException);
+        target.close();
+    }
+
+    @Test
+    void testReplicaDeliveriesKeepOwnerSequencesAndGaps() {
+        var topic = target.getTopic("replica");
+        var subscriber = new RecordingSubscriber();
+        topic.registerSubscriber(subscriber).join();
+
+        topic.deliver(5, "alice", "first", Instant.now());
+        topic.deliver(5, "alice", "duplicate", Instant.now());
+        topic.deliverGap(6, 9);
+        topic.deliver(9, "bob", "second", Instant.now());
+
+        assertEquals(List.of("5 first", "gap 6-9", "9 second"), subscriber.events);
+        assertEquals(10, topic.getNextSequence());
+        target.close();
+    }
+
+    private record NamedPublisher(String name) implements Publisher<String> {
+
+        @Override
+        public void sendMessage(String message) {
+        }
+
+        @Override
+        public String getPublisherName() {
+            return name;
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<String> {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void handleMessage(String topic, String sender, String message, Instant instant) {
+            events.add(message);
+        }
+
+        @Override
+        public void handleMessage(String topic, Message<String> message) {
+            events.add(message.sequence() + " " + message.message());
+        }
+
+        @Override
+        public void handleGap(String topic, long fromSequence, long toSequence) {
+            events.add("gap " + fromSequence + "-" + toSequence);
+        }
+    }
+}
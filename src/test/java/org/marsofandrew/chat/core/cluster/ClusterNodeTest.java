@@ -0,0 +1,106 @@
+package org.marsofandrew.chat.core.cluster;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.marsofandrew.chat.core.HistoryFactory;
+import org.marsofandrew.chat.core.TopicService;
+import org.marsofandrew.chat.core.TopicSettings;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClusterNodeTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+    private final EventLoopGroup workerGroup = new NioEventLoopGroup(2);
+    private final List<ClusterNode<String>> nodes = new ArrayList<>();
+    private final List<TopicService<String>> services = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(ClusterNode::close);
+        services.forEach(TopicService::close);
+        bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Test
+    void testReplicaKeepsSequencesOfOwner() throws Exception {
+        String ownerNode = "127.0.0.1:" + freePort();
+        String replicaNode = "127.0.0.1:" + freePort();
+        var ownerService = start(ownerNode, replicaNode);
+        var replicaService = start(replicaNode, ownerNode);
+        String topic = topicOwnedBy(ownerNode);
+
+        var owner = ownerService.getTopic(topic);
+        owner.restoreUpTo(100);
+        assertTrue(owner.publish("alice", "first"));
+        var replica = replicaService.getTopic(topic);
+        assertTrue(replica.isReplica());
+        await(() -> replica.getNextSequence() == 101);
+
+        assertTrue(replica.publish("bob", "second"));
+        await(() -> replica.getNextSequence() == 102);
+
+        assertEquals(List.of("100 alice first", "101 bob second"), history(owner));
+        assertEquals(history(owner), history(replica));
+    }
+
+    private TopicService<String> start(String node, String peer) throws InterruptedException {
+        var cluster = new ClusterNode<>(ClusterSettings.builder().node(node).peer(peer).reconnectMillis(50).build(),
+                MessageCodec.UTF_8, bossGroup, workerGroup, NioServerSocketChannel.class, NioSocketChannel.class);
+        var service = new TopicService<>(TopicSettings.builder()
+                .messageLimit(10)
+                .publishersLimit(10)
+                .subscribersLimit(10)
+                .build(), HistoryFactory.inMemory(), cluster);
+        cluster.start(service);
+        nodes.add(cluster);
+        services.add(service);
+        return service;
+    }
+
+    private String topicOwnedBy(String node) {
+        for (int i = 0; ; i++) {
+            if (nodes.get(0).ownerOf("topic" + i).equals(node)) {
+                return "topic" + i;
+            }
+        }
+    }
+
+    private static List<String> history(TopicService.Topic<String> topic) {
+        List<String> result = new ArrayList<>();
+        topic.readHistory(topic.getFirstSequence(), topic.getNextSequence(),
+                (sequence, message) -> result.add(sequence + " " + message.sender() + " " + message.message()));
+        return result;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertFalse(System.currentTimeMillis() > deadline, "condition isn't met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
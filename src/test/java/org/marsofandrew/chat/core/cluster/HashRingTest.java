@@ -0,0 +1,54 @@
+package org.marsofandrew.chat.core.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HashRingTest {
+
+    private static final int TOPICS = 10_000;
+
+    @Test
+    void testOrderOfNodesDoesNotMatter() {
+        var target = new HashRing(List.of("a:1", "b:1", "c:1"), 64);
+        var reversed = new HashRing(List.of("c:1", "b:1", "a:1"), 64);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(target.ownerOf("topic" + i), reversed.ownerOf("topic" + i));
+        }
+    }
+
+    @Test
+    void testTopicsAreSpreadOverNodes() {
+        var target = new HashRing(List.of("a:1", "b:1", "c:1"), 128);
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < TOPICS; i++) {
+            owned.merge(target.ownerOf("topic" + i), 1, Integer::sum);
+        }
+
+        assertEquals(3, owned.size());
+        owned.values().forEach(count -> assertTrue(count > TOPICS / 5, owned::toString));
+    }
+
+    @Test
+    void testAddedNodeTakesTopicsOnlyFromOthers() {
+        var before = new HashRing(List.of("a:1", "b:1", "c:1"), 128);
+        var after = new HashRing(List.of("a:1", "b:1", "c:1", "d:1"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < TOPICS; i++) {
+            String owner = after.ownerOf("topic" + i);
+            if (!owner.equals(before.ownerOf("topic" + i))) {
+                assertEquals("d:1", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > TOPICS / 8 && moved < TOPICS / 2, "moved " + moved);
+    }
+}
@@ -0,0 +1,64 @@
+package org.marsofandrew.chat.core.cluster;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LinkProtocolTest {
+
+    @Test
+    void testDeliverRoundTrip() {
+        Instant timestamp = Instant.ofEpochSecond(100, 5);
+        ByteBuf frame = LinkProtocol.deliver(UnpooledByteBufAllocator.DEFAULT, "news", 7, timestamp, "bob",
+                "hi".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(frame.readableBytes() - 4, frame.readInt());
+        assertEquals(LinkProtocol.DELIVER, frame.readByte());
+        assertEquals("news", LinkProtocol.readString(frame));
+        assertEquals(7, frame.readLong());
+        assertEquals(timestamp, LinkProtocol.readInstant(frame));
+        assertEquals("bob", LinkProtocol.readString(frame));
+        assertArrayEquals("hi".getBytes(StandardCharsets.UTF_8), LinkProtocol.readBytes(frame));
+        assertEquals(0, frame.readableBytes());
+        frame.release();
+    }
+
+    @Test
+    void testFrameOfTooLongSenderIsReleased() {
+        List<ByteBuf> allocated = new ArrayList<>();
+        var allocator = new AbstractByteBufAllocator() {
+            @Override
+            protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+                return Unpooled.buffer(initialCapacity, maxCapacity);
+            }
+
+            @Override
+            protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+                ByteBuf buffer = Unpooled.directBuffer(initialCapacity, maxCapacity);
+                allocated.add(buffer);
+                return buffer;
+            }
+
+            @Override
+            public boolean isDirectBufferPooled() {
+                return false;
+            }
+        };
+
+        assertThrows(IllegalArgumentException.class, () -> LinkProtocol.publish(allocator, "news",
+                "x".repeat(0x10000), new byte[0]));
+        assertEquals(1, allocated.size());
+        assertEquals(0, allocated.get(0).refCnt());
+    }
+}
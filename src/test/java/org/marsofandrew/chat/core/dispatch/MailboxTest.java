@@ -0,0 +1,297 @@
+package org.marsofandrew.chat.core.dispatch;
+
+import org.junit.jupiter.api.Test;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.model.Subscriber;
+import org.marsofandrew.chat.core.utils.History;
+import org.marsofandrew.chat.core.utils.RingBufferHistory;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MailboxTest {
+
+    private static final String TOPIC = "topic";
+
+    private final StubSubscriber subscriber = new StubSubscriber();
+    private History<Message<String>> history = new RingBufferHistory<>(100);
+
+    @Test
+    void testLiveMessagesAreFlushedOncePerBatch() {
+        var target = liveMailbox(new Dispatcher(16, OverflowPolicy.DROP_OLDEST, 1_000));
+
+        publish(target);
+        publish(target);
+        publish(target);
+        subscriber.runTasks();
+
+        assertEquals(List.of("#0", "#1", "#2", "flush"), subscriber.events);
+    }
+
+    @Test
+    void testDeliveryResumesWhenSubscriberBecomesWritable() {
+        var target = liveMailbox(new Dispatcher(16, OverflowPolicy.DROP_OLDEST, 1_000));
+        subscriber.writable = false;
+
+        publish(target);
+        subscriber.runTasks();
+        assertEquals(List.of(), subscriber.events);
+
+        subscriber.becomeWritable();
+        subscriber.runTasks();
+        assertEquals(List.of("#0", "flush"), subscriber.events);
+    }
+
+    @Test
+    void testDropOldestKeepsNewestMessages() {
+        var dispatcher = new Dispatcher(2, OverflowPolicy.DROP_OLDEST, 1_000);
+        var target = liveMailbox(dispatcher);
+        subscriber.writable = false;
+
+        for (int i = 0; i < 4; i++) {
+            publish(target);
+        }
+        subscriber.becomeWritable();
+        subscriber.runTasks();
+
+        assertEquals(List.of("#2", "#3", "flush"), subscriber.events);
+        assertEquals(2, dispatcher.getDroppedOldest());
+        assertEquals(0, dispatcher.getDroppedNewest());
+    }
+
+    @Test
+    void testDropNewestKeepsQueuedMessages() {
+        var dispatcher = new Dispatcher(2, OverflowPolicy.DROP_NEWEST, 1_000);
+        var target = liveMailbox(dispatcher);
+        subscriber.writable = false;
+
+        for (int i = 0; i < 4; i++) {
+            publish(target);
+        }
+        subscriber.becomeWritable();
+        subscriber.runTasks();
+
+        assertEquals(List.of("#0", "#1", "flush"), subscriber.events);
+        assertEquals(0, dispatcher.getDroppedOldest());
+        assertEquals(2, dispatcher.getDroppedNewest());
+    }
+
+    @Test
+    void testDroppedOldestAreReportedAsGap() {
+        subscriber.reportDrops = true;
+        var target = liveMailbox(new Dispatcher(2, OverflowPolicy.DROP_OLDEST, 1_000));
+        subscriber.writable = false;
+
+        for (int i = 0; i < 4; i++) {
+            publish(target);
+        }
+        subscriber.becomeWritable();
+        subscriber.runTasks();
+
+        assertEquals(List.of("gap 0-2", "#2", "#3", "flush"), subscriber.events);
+    }
+
+    @Test
+    void testDroppedNewestAreReportedBeforeNextMessage() {
+        subscriber.reportDrops = true;
+        var target = liveMailbox(new Dispatcher(2, OverflowPolicy.DROP_NEWEST, 1_000));
+        subscriber.writable = false;
+
+        for (int i = 0; i < 4; i++) {
+            publish(target);
+        }
+        subscriber.becomeWritable();
+        subscriber.runTasks();
+        publish(target);
+        subscriber.runTasks();
+
+        assertEquals(List.of("#0", "#1", "flush", "gap 2-4", "#4", "flush"), subscriber.events);
+    }
+
+    @Test
+    void testDisconnectSubscriberUnwritableForTooLong() throws InterruptedException {
+        var dispatcher = new Dispatcher(16, OverflowPolicy.DISCONNECT, 0);
+        var target = liveMailbox(dispatcher);
+        subscriber.writable = false;
+
+        publish(target);
+        assertFalse(subscriber.disconnected);
+        Thread.sleep(1);
+        publish(target);
+        publish(target);
+
+        assertTrue(subscriber.disconnected);
+        assertEquals(1, dispatcher.getDisconnects());
+        assertTrue(subscriber.listeners.isEmpty());
+        subscriber.becomeWritable();
+        subscriber.runTasks();
+        assertEquals(List.of(), subscriber.events);
+    }
+
+    @Test
+    void testMessagePublishedDuringCatchUpIsDeliveredOnce() {
+        for (int i = 0; i < 5; i++) {
+            publish(null);
+        }
+        var target = new Dispatcher(16, OverflowPolicy.DROP_OLDEST, 1_000).mailbox(TOPIC, subscriber, history, 0);
+        // published after the mailbox became visible, but before the catch-up snapshot
+        publish(target);
+        target.catchUp(history.nextSequence());
+        publish(target);
+        subscriber.runTasks();
+
+        assertEquals(List.of("#0", "#1", "#2", "#3", "#4", "#5", "#6", "flush"), subscriber.events);
+    }
+
+    @Test
+    void testOverflowDuringCatchUpIsReplayedFromHistory() {
+        for (int i = 0; i < 3; i++) {
+            publish(null);
+        }
+        var dispatcher = new Dispatcher(1, OverflowPolicy.DROP_NEWEST, 1_000);
+        var target = dispatcher.mailbox(TOPIC, subscriber, history, 0);
+        target.catchUp(history.nextSequence());
+        for (int i = 0; i < 3; i++) {
+            publish(target);
+        }
+        subscriber.runTasks();
+
+        assertEquals(List.of("#0", "#1", "#2", "#3", "#4", "#5", "flush"), subscriber.events);
+        assertEquals(0, dispatcher.getDroppedMessages());
+    }
+
+    @Test
+    void testGapIsReportedForEvictedCatchUpStart() {
+        history = new RingBufferHistory<>(4);
+        for (int i = 0; i < 10; i++) {
+            publish(null);
+        }
+        var target = new Dispatcher(16, OverflowPolicy.DROP_OLDEST, 1_000).mailbox(TOPIC, subscriber, history, 2);
+        target.catchUp(history.nextSequence());
+        subscriber.runTasks();
+
+        assertEquals(List.of("gap 2-6", "#6", "#7", "#8", "#9", "flush"), subscriber.events);
+    }
+
+    @Test
+    void testResumeReplaysOnlyMessagesAfterLastSeen() {
+        for (int i = 0; i < 10; i++) {
+            publish(null);
+        }
+        long lastSeen = 6;
+        var target = new Dispatcher(16, OverflowPolicy.DROP_OLDEST, 1_000)
+                .mailbox(TOPIC, subscriber, history, lastSeen + 1);
+        target.catchUp(history.nextSequence());
+        publish(target);
+        subscriber.runTasks();
+
+        assertEquals(List.of("#7", "#8", "#9", "#10", "flush"), subscriber.events);
+    }
+
+    private Mailbox<String> liveMailbox(Dispatcher dispatcher) {
+        var mailbox = dispatcher.mailbox(TOPIC, subscriber, history, history.nextSequence());
+        mailbox.catchUp(history.nextSequence());
+        subscriber.runTasks();
+        subscriber.events.clear();
+        return mailbox;
+    }
+
+    /**
+     * Appends message to the history and offers it like a topic does.
+     */
+    private Message<String> publish(Mailbox<String> mailbox) {
+        var message = history.append(sequence -> new Message<>(sequence, Instant.EPOCH, "m" + sequence, "sender"));
+        if (mailbox != null) {
+            var broadcast = new Broadcast<>(TOPIC, message);
+            mailbox.offer(broadcast);
+            broadcast.release();
+        }
+        return message;
+    }
+
+    private static class StubSubscriber implements Subscriber<String>, Executor {
+
+        final List<String> events = new ArrayList<>();
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+        boolean writable = true;
+        boolean disconnected;
+        boolean reportDrops;
+
+        @Override
+        public void handleMessage(String topic, String sender, String message, Instant instant) {
+            events.add(message);
+        }
+
+        @Override
+        public void handleMessage(String topic, Message<String> message) {
+            events.add("#" + message.sequence());
+        }
+
+        @Override
+        public void handleGap(String topic, long fromSequence, long toSequence) {
+            events.add("gap " + fromSequence + "-" + toSequence);
+        }
+
+        @Override
+        public void flush() {
+            events.add("flush");
+        }
+
+        @Override
+        public boolean reportsDroppedMessages() {
+            return reportDrops;
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return this;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public boolean isWritable() {
+            return writable;
+        }
+
+        @Override
+        public void addWritabilityListener(Runnable listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeWritabilityListener(Runnable listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public void disconnect() {
+            disconnected = true;
+        }
+
+        void becomeWritable() {
+            writable = true;
+            listeners.forEach(Runnable::run);
+        }
+
+        void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.marsofandrew.chat.core.logging;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BoundedAsyncAppenderTest {
+
+    private static final Logger LOGGER = Logger.getLogger(BoundedAsyncAppenderTest.class);
+
+    private final BoundedAsyncAppender target = new BoundedAsyncAppender();
+    private final BlockingQueue<String> appended = new LinkedBlockingQueue<>();
+
+    {
+        target.addAppender(new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent event) {
+                appended.add(event.getRenderedMessage());
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean requiresLayout() {
+                return false;
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        target.close();
+    }
+
+    @Test
+    void testAppendDoesNotTakeAppenderMonitor() throws InterruptedException {
+        var locked = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var holder = new Thread(() -> {
+            synchronized (target) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        try {
+            locked.await();
+            target.doAppend(event(Level.INFO, "while locked"));
+
+            assertEquals("while locked", appended.poll(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    void testThresholdAndFiltersAreApplied() throws InterruptedException {
+        target.setThreshold(Level.INFO);
+        target.addFilter(new Filter() {
+            @Override
+            public int decide(LoggingEvent event) {
+                return "denied".equals(event.getMessage()) ? DENY : NEUTRAL;
+            }
+        });
+
+        target.doAppend(event(Level.DEBUG, "below threshold"));
+        target.doAppend(event(Level.WARN, "denied"));
+        target.doAppend(event(Level.WARN, "accepted"));
+
+        assertEquals("accepted", appended.poll(5, TimeUnit.SECONDS));
+        assertTrue(appended.isEmpty());
+    }
+
+    @Test
+    void testEventsOverBufferAreDroppedAndReported() throws InterruptedException {
+        var busy = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var bounded = new BoundedAsyncAppender();
+        bounded.setBufferSize(2);
+        bounded.addAppender(new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent event) {
+                appended.add(event.getRenderedMessage());
+                if ("first".equals(event.getMessage())) {
+                    busy.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean requiresLayout() {
+                return false;
+            }
+        });
+        try {
+            bounded.doAppend(event(Level.INFO, "first"));
+            assertTrue(busy.await(5, TimeUnit.SECONDS));
+            long droppedBefore = BoundedAsyncAppender.droppedEvents();
+            for (String message : new String[]{"second", "third", "fourth"}) {
+                bounded.doAppend(event(Level.INFO, message));
+            }
+            assertEquals(droppedBefore + 1, BoundedAsyncAppender.droppedEvents());
+            release.countDown();
+
+            for (String expected : new String[]{"first", "second", "third", "1 logging events were dropped"}) {
+                assertEquals(expected, appended.poll(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            release.countDown();
+            bounded.close();
+        }
+    }
+
+    private static LoggingEvent event(Level level, String message) {
+        return new LoggingEvent(BoundedAsyncAppenderTest.class.getName(), LOGGER, level, message, null);
+    }
+}
@@ -0,0 +1,39 @@
+package org.marsofandrew.chat.core.logging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LogRateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final LogRateLimiter target = new LogRateLimiter(10, TimeUnit.NANOSECONDS, now::get);
+
+    @Test
+    void testOneStatementPerInterval() {
+        assertTrue(target.tryAcquire());
+        assertFalse(target.tryAcquire());
+
+        now.addAndGet(9);
+        assertFalse(target.tryAcquire());
+
+        now.addAndGet(1);
+        assertTrue(target.tryAcquire());
+        assertFalse(target.tryAcquire());
+    }
+
+    @Test
+    void testSuppressedAreCountedUntilDrained() {
+        target.tryAcquire();
+        target.tryAcquire();
+        target.tryAcquire();
+
+        assertEquals(2, target.drainSuppressed());
+        assertEquals(0, target.drainSuppressed());
+    }
+}
@@ -0,0 +1,145 @@
+package org.marsofandrew.chat.core.offheap;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffHeapHistoryTest {
+
+    private static final int CAPACITY = 10;
+    private static final int SLAB_BYTES = 1024;
+    private static final String SENDER = "sender";
+
+    private RecordingAllocator allocator;
+    private OffHeapHistory<String> target;
+
+    @BeforeEach
+    void before() {
+        allocator = new RecordingAllocator();
+        target = new OffHeapHistory<>(CAPACITY, MessageCodec.UTF_8, allocator, SLAB_BYTES);
+    }
+
+    @Test
+    void testGetMaterializesStoredMessage() {
+        var timestamp = Instant.ofEpochMilli(1_000);
+
+        var appended = target.append(sequence -> new Message<>(sequence, timestamp, "\u0442\u0435\u0441\u0442", SENDER));
+
+        assertEquals(appended, target.get(0));
+        assertEquals(new Message<>(0, timestamp, "\u0442\u0435\u0441\u0442", SENDER), target.get(0));
+    }
+
+    @Test
+    void testTooLongSenderIsRejectedBeforeStoring() {
+        var message = new Message<>(Instant.now(), "text", "s".repeat(0x10000));
+
+        assertThrows(IllegalArgumentException.class, () -> target.add(message));
+        assertEquals(0, target.nextSequence());
+        assertTrue(allocator.allocated.isEmpty());
+    }
+
+    @Test
+    void testSkipToNextSequenceKeepsMessages() {
+        target.add(message(0));
+        target.add(message(1));
+
+        target.skipTo(2);
+
+        assertEquals(0, target.firstSequence());
+        assertEquals(List.of("0", "1"), payloads());
+    }
+
+    @Test
+    void testAddOverCapacityEvictsOldest() {
+        for (int i = 0; i < CAPACITY * 2; i++) {
+            assertEquals(i, target.add(message(i)));
+        }
+
+        assertEquals(CAPACITY, target.firstSequence());
+        assertNull(target.get(CAPACITY - 1));
+        assertEquals(IntStream.range(CAPACITY, CAPACITY * 2).mapToObj(Integer::toString).toList(), payloads());
+    }
+
+    @Test
+    void testSlabsOfEvictedEntriesAreReleased() {
+        var large = "x".repeat(SLAB_BYTES / 2);
+        for (int i = 0; i < CAPACITY * 10; i++) {
+            target.add(new Message<>(Instant.now(), large, SENDER));
+        }
+
+        assertTrue(allocator.allocated.size() > CAPACITY + 1);
+        assertTrue(allocator.live() <= CAPACITY + 1);
+        assertEquals(CAPACITY, target.size());
+    }
+
+    @Test
+    void testCloseReleasesAllSlabs() {
+        for (int i = 0; i < CAPACITY; i++) {
+            target.add(message(i));
+        }
+
+        target.close();
+
+        assertEquals(0, allocator.live());
+        assertEquals(0, target.size());
+        assertNull(target.get(0));
+    }
+
+    @Test
+    void testZeroCapacityStoresNothing() {
+        var empty = new OffHeapHistory<>(0, MessageCodec.UTF_8, allocator, SLAB_BYTES);
+
+        assertEquals(0, empty.add(message(0)));
+
+        assertEquals(List.of(), empty.toList());
+        assertEquals(1, empty.nextSequence());
+    }
+
+    private List<String> payloads() {
+        return target.toList().stream().map(Message::message).toList();
+    }
+
+    private static Message<String> message(int i) {
+        return new Message<>(Instant.ofEpochMilli(i), Integer.toString(i), SENDER);
+    }
+
+    private static class RecordingAllocator extends AbstractByteBufAllocator {
+
+        private final List<ByteBuf> allocated = new ArrayList<>();
+
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return Unpooled.buffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            var buf = Unpooled.directBuffer(initialCapacity, maxCapacity);
+            allocated.add(buf);
+            return buf;
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return false;
+        }
+
+        long live() {
+            return allocated.stream().filter(buf -> buf.refCnt() > 0).count();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.marsofandrew.chat.core.persistence;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SegmentedLogTest {
+
+    private static final int SEGMENT_BYTES = 256;
+    private static final String SENDER = "sender";
+
+    @TempDir
+    Path directory;
+
+    private LogSettings settings;
+
+    @BeforeEach
+    void before() {
+        settings = LogSettings.builder()
+                .directory(directory)
+                .segmentBytes(SEGMENT_BYTES)
+                .indexIntervalBytes(64)
+                .retentionBytes(Long.MAX_VALUE)
+                .retentionMillis(Long.MAX_VALUE)
+                .build();
+    }
+
+    @Test
+    void testReadReturnsAppendedRecordsInOrder() throws IOException {
+        var target = SegmentedLog.open(directory, settings);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, target.append(i, SENDER, payload(i)));
+        }
+
+        assertEquals(range(0, 20), readAll(target, 0));
+        assertEquals(range(15, 20), readAll(target, 15));
+    }
+
+    @Test
+    void testSenderLengthIsUnsignedShort() throws IOException {
+        settings = LogSettings.builder().directory(directory).segmentBytes(256 * 1024)
+                .retentionBytes(Long.MAX_VALUE).retentionMillis(Long.MAX_VALUE).build();
+        var target = SegmentedLog.open(directory, settings);
+        String longest = "s".repeat(0xffff);
+        target.append(0, longest, payload(0));
+
+        assertThrows(IllegalArgumentException.class, () -> target.append(1, longest + "s", payload(1)));
+        List<String> senders = new ArrayList<>();
+        target.read(0, Integer.MAX_VALUE, (sequence, timestamp, sender, payload) -> senders.add(sender));
+        assertEquals(List.of(longest), senders);
+        assertEquals(1, target.nextSequence());
+    }
+
+    @Test
+    void testAppendRollsSegments() throws IOException {
+        var target = SegmentedLog.open(directory, settings);
+        for (int i = 0; i < 20; i++) {
+            target.append(i, SENDER, payload(i));
+        }
+
+        assertTrue(segmentFiles() > 1);
+        assertEquals(range(0, 20), readAll(target, 0));
+    }
+
+    @Test
+    void testRetentionBySizeDeletesOldestSegments() throws IOException {
+        settings = LogSettings.builder().directory(directory).segmentBytes(SEGMENT_BYTES)
+                .retentionBytes(SEGMENT_BYTES).retentionMillis(Long.MAX_VALUE).build();
+        var target = SegmentedLog.open(directory, settings);
+        for (int i = 0; i < 20; i++) {
+            target.append(i, SENDER, payload(i));
+        }
+
+        assertTrue(target.firstSequence() > 0);
+        assertTrue(target.sizeBytes() <= SEGMENT_BYTES);
+        assertEquals(range((int) target.firstSequence(), 20), readAll(target, 0));
+    }
+
+    @Test
+    void testRetentionByAgeDeletesOldestSegments() throws IOException {
+        settings = LogSettings.builder().directory(directory).segmentBytes(SEGMENT_BYTES)
+                .retentionBytes(Long.MAX_VALUE).retentionMillis(100).build();
+        var target = SegmentedLog.open(directory, settings);
+        for (int i = 0; i < 20; i++) {
+            target.append(i, SENDER, payload(i));
+        }
+        target.append(1_000, SENDER, payload(20));
+
+        assertTrue(target.firstSequence() > 0);
+        assertEquals(range((int) target.firstSequence(), 21), readAll(target, 0));
+    }
+
+    @Test
+    void testReopenContinuesSequence() throws IOException {
+        var target = SegmentedLog.open(directory, settings);
+        for (int i = 0; i < 20; i++) {
+            target.append(i, SENDER, payload(i));
+        }
+        target.close();
+
+        var reopened = SegmentedLog.open(directory, settings);
+
+        assertEquals(20, reopened.nextSequence());
+        assertEquals(20, reopened.append(20, SENDER, payload(20)));
+        assertEquals(range(0, 21), readAll(reopened, 0));
+    }
+
+    @Test
+    void testReopenClosedLogSeveralTimes() throws IOException {
+        var target = SegmentedLog.open(directory, settings);
+        for (int i = 0; i < 20; i++) {
+            target.append(i, SENDER, payload(i));
+        }
+        target.close();
+        assertEquals(List.of(), readAll(target, 0));
+        assertThrows(IllegalStateException.class, () -> target.append(20, SENDER, payload(20)));
+
+        var reopened = SegmentedLog.open(directory, settings);
+        reopened.append(20, SENDER, payload(20));
+        reopened.append(21, SENDER, payload(21));
+        reopened.close();
+
+        var again = SegmentedLog.open(directory, settings);
+
+        assertEquals(22, again.nextSequence());
+        assertEquals(range(0, 22), readAll(again, 0));
+        again.close();
+    }
+
+    @Test
+    void testReopenTruncatesTornRecord() throws IOException {
+        var target = SegmentedLog.open(directory, settings);
+        target.append(0, SENDER, payload(0));
+        target.append(1, SENDER, payload(1));
+        // crash: the log isn't closed, so the active segment isn't sealed
+        Path segment = lastSegment();
+        try (var file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long secondRecord = Segment.HEADER_BYTES + Segment.FIXED_BODY_BYTES + SENDER.length() + payload(0).length;
+            file.seek(secondRecord + Segment.HEADER_BYTES + Segment.FIXED_BODY_BYTES);
+            file.write(0xFF);
+        }
+
+        var reopened = SegmentedLog.open(directory, settings);
+
+        assertEquals(1, reopened.nextSequence());
+        assertEquals(List.of(0), readAll(reopened, 0));
+    }
+
+    @Test
+    void testSkipToContinuesFromGivenSequence() throws IOException {
+        var target = SegmentedLog.open(directory, settings);
+        target.skipTo(5);
+        assertEquals(5, target.firstSequence());
+        assertEquals(5, target.append(5, SENDER, payload(5)));
+        target.skipTo(10);
+        assertEquals(10, target.append(10, SENDER, payload(10)));
+        target.close();
+
+        var reopened = SegmentedLog.open(directory, settings);
+
+        assertEquals(11, reopened.nextSequence());
+        assertEquals(List.of(5, 10), readAll(reopened, 0));
+        assertThrows(IllegalArgumentException.class, () -> reopened.skipTo(3));
+    }
+
+    private static byte[] payload(int value) {
+        return Integer.toString(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    private static List<Integer> readAll(SegmentedLog log, long from) {
+        List<Integer> result = new ArrayList<>();
+        log.read(from, Integer.MAX_VALUE, (sequence, timestamp, sender, payload) ->
+                result.add(Integer.parseInt(new String(payload, StandardCharsets.UTF_8))));
+        return result;
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Segment::isSegment).count();
+        }
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Segment::isSegment).sorted().reduce((first, second) -> second).orElseThrow();
+        }
+    }
+}
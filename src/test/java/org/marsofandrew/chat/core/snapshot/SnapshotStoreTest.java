@@ -0,0 +1,141 @@
+package org.marsofandrew.chat.core.snapshot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.marsofandrew.chat.core.TopicService;
+import org.marsofandrew.chat.core.TopicSettings;
+import org.marsofandrew.chat.core.model.Message;
+import org.marsofandrew.chat.core.persistence.MessageCodec;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class SnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRoundTripKeepsSequences() throws Exception {
+        TopicService<String> source = new TopicService<>(5, 10, 10);
+        var news = source.getTopic("news");
+        for (long sequence = 3; sequence < 6; sequence++) {
+            news.restore(new Message<>(sequence, Instant.ofEpochSecond(100, sequence), "m" + sequence, "bob"));
+        }
+        source.getTopic("empty").restoreUpTo(8);
+        new SnapshotStore<>(directory, MessageCodec.UTF_8, 2, true).write(source, Map.of("bob", "secret"));
+        source.close();
+
+        TopicService<String> target = new TopicService<>(5, 10, 10);
+        Map<String, String> credentials = new HashMap<>();
+        assertTrue(new SnapshotStore<>(directory, MessageCodec.UTF_8, 2, true).load(target, credentials::put));
+
+        assertEquals(2, target.getTopicCount());
+        assertEquals(Map.of("bob", "secret"), credentials);
+        assertEquals(8, target.getTopic("empty").getNextSequence());
+        var restored = target.getTopic("news");
+        assertEquals(6, restored.getNextSequence());
+        List<Message<String>> messages = new ArrayList<>();
+        restored.readHistory(0, 6, (sequence, message) -> messages.add(message));
+        assertEquals(List.of(
+                new Message<>(3, Instant.ofEpochSecond(100, 3), "m3", "bob"),
+                new Message<>(4, Instant.ofEpochSecond(100, 4), "m4", "bob"),
+                new Message<>(5, Instant.ofEpochSecond(100, 5), "m5", "bob")), messages);
+        target.close();
+    }
+
+    @Test
+    void testStringsLongerThanModifiedUtf8Limit() throws Exception {
+        String sender = "s".repeat(70_000);
+        String password = "p".repeat(70_000);
+        TopicService<String> source = new TopicService<>(5, 10, 10);
+        source.getTopic("long").restore(new Message<>(0, Instant.ofEpochSecond(1), "text", sender));
+        source.getTopic("long").restoreUpTo(1);
+        new SnapshotStore<>(directory, MessageCodec.UTF_8, 1, true).write(source, Map.of("bob", password));
+        source.close();
+
+        TopicService<String> target = new TopicService<>(5, 10, 10);
+        Map<String, String> credentials = new HashMap<>();
+        assertTrue(new SnapshotStore<>(directory, MessageCodec.UTF_8, 1, true).load(target, credentials::put));
+        assertEquals(Map.of("bob", password), credentials);
+        List<Message<String>> messages = new ArrayList<>();
+        target.getTopic("long").readHistory(0, 1, (sequence, message) -> messages.add(message));
+        assertEquals(List.of(new Message<>(0, Instant.ofEpochSecond(1), "text", sender)), messages);
+        target.close();
+    }
+
+    @Test
+    void testRestoreIgnoresTopicsLimit() throws Exception {
+        TopicService<String> source = new TopicService<>(5, 10, 10);
+        for (int i = 0; i < 3; i++) {
+            source.getTopic("topic-" + i).restoreUpTo(i + 1);
+        }
+        new SnapshotStore<>(directory, MessageCodec.UTF_8, 1, true).write(source, Map.of());
+        source.close();
+
+        TopicService<String> target = new TopicService<>(TopicSettings.builder()
+                .messageLimit(5)
+                .publishersLimit(10)
+                .subscribersLimit(10)
+                .topicsLimit(2)
+                .build());
+        assertTrue(new SnapshotStore<>(directory, MessageCodec.UTF_8, 1, true).load(target, (user, password) -> { }));
+        assertEquals(3, target.getTopicCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, target.findTopic("topic-" + i).getNextSequence());
+        }
+        target.close();
+    }
+
+    @Test
+    void testClientsFileIsReadableOnlyByOwner() throws Exception {
+        assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        TopicService<String> source = new TopicService<>(5, 10, 10);
+        new SnapshotStore<>(directory, MessageCodec.UTF_8, 1, true).write(source, Map.of("bob", "hash"));
+        source.close();
+
+        Path clients;
+        try (Stream<Path> files = Files.walk(directory)) {
+            clients = files.filter(file -> file.getFileName().toString().equals("clients.bin")).findFirst().orElseThrow();
+        }
+        assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+                Files.getPosixFilePermissions(clients));
+    }
+
+    @Test
+    void testLatestGenerationWins() throws Exception {
+        TopicService<String> source = new TopicService<>(5, 10, 10);
+        var store = new SnapshotStore<>(directory, MessageCodec.UTF_8, 1, true);
+        source.getTopic("first");
+        store.write(source, Map.of());
+        source.getTopic("second").restoreUpTo(2);
+        store.write(source, Map.of());
+        source.close();
+
+        TopicService<String> target = new TopicService<>(5, 10, 10);
+        assertTrue(store.load(target, (user, password) -> { }));
+        assertEquals(2, target.getTopicCount());
+        assertEquals(2, target.getTopic("second").getNextSequence());
+        target.close();
+    }
+
+    @Test
+    void testNothingToLoad() throws Exception {
+        TopicService<String> target = new TopicService<>(5, 10, 10);
+        assertFalse(new SnapshotStore<>(directory, MessageCodec.UTF_8, 1, true).load(target, (user, password) -> { }));
+        target.close();
+    }
+}
@@ -0,0 +1,86 @@
+package org.marsofandrew.chat.core.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.marsofandrew.chat.core.utils.exception.OversizeException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BoundedMembershipTest {
+
+    private static final int MAX_SIZE = 3;
+
+    private BoundedMembership<Object, String> target;
+
+    @BeforeEach
+    void before() {
+        target = new BoundedMembership<>(MAX_SIZE);
+    }
+
+    @Test
+    void testPutMoreThanMaxThrowsException() {
+        for (int i = 0; i < MAX_SIZE; i++) {
+            target.put(new Object(), "value" + i);
+        }
+
+        assertThrows(OversizeException.class, () -> target.put(new Object(), "extra"));
+    }
+
+    @Test
+    void testPutExistingMemberReplacesValue() {
+        var member = new Object();
+        target.put(member, "first");
+
+        assertEquals("first", target.put(member, "second"));
+        assertEquals(1, target.size());
+        assertEquals("second", target.get(member));
+    }
+
+    @Test
+    void testMembersAreComparedByIdentity() {
+        target.put("member", "first");
+
+        assertNull(target.remove(new String("member")));
+        assertEquals(1, target.size());
+    }
+
+    @Test
+    void testRemoveMovesLastMemberIntoGap() {
+        var first = new Object();
+        var second = new Object();
+        var third = new Object();
+        target.put(first, "first");
+        target.put(second, "second");
+        target.put(third, "third");
+
+        assertEquals("first", target.remove(first));
+
+        assertEquals(List.of("third", "second"), target.snapshot());
+        assertEquals("third", target.remove(third));
+        assertEquals(List.of("second"), target.snapshot());
+    }
+
+    @Test
+    void testSnapshotIsNotChangedByLaterChanges() {
+        var member = new Object();
+        target.put(member, "first");
+        var snapshot = target.snapshot();
+
+        target.remove(member);
+
+        assertEquals(List.of("first"), snapshot);
+        assertEquals(List.of(), target.snapshot());
+    }
+
+    @Test
+    void testSnapshotIsReusedWithoutChanges() {
+        target.put(new Object(), "first");
+
+        assertSame(target.snapshot(), target.snapshot());
+    }
+}
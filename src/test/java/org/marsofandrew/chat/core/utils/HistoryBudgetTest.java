@@ -0,0 +1,147 @@
+package org.marsofandrew.chat.core.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class HistoryBudgetTest {
+
+    private static final int CAPACITY = 100;
+
+    @Test
+    void testGloballyOldestElementsAreTrimmedFirst() {
+        var budget = new HistoryBudget(30, 0, 30);
+        var first = history(budget);
+        var second = history(budget);
+
+        first.add(10);
+        second.add(10);
+        first.add(10);
+        second.add(10);
+
+        assertEquals(List.of(10), first.toList());
+        assertEquals(List.of(10, 10), second.toList());
+        assertEquals(30, budget.getUsedBytes());
+        assertEquals(1, budget.getTrimmed());
+    }
+
+    @Test
+    void testHistoryIsNotTrimmedBelowMinShare() {
+        var budget = new HistoryBudget(30, 10, 30);
+        var quiet = history(budget);
+        var busy = history(budget);
+
+        quiet.add(10);
+        for (int i = 0; i < 5; i++) {
+            busy.add(10);
+        }
+
+        assertEquals(List.of(10), quiet.toList());
+        assertEquals(20, busy.estimatedBytes());
+        assertEquals(30, budget.getUsedBytes());
+    }
+
+    @Test
+    void testHistoryOverMaxShareTrimsItself() {
+        var budget = new HistoryBudget(100, 0, 25);
+        var target = history(budget);
+
+        for (int i = 1; i <= 3; i++) {
+            target.add(10);
+        }
+
+        assertEquals(List.of(10, 10), target.toList());
+        assertEquals(1, target.firstSequence());
+        assertNull(target.get(0));
+    }
+
+    @Test
+    void testOverwrittenAndClosedHistoriesReturnBytes() {
+        var budget = new HistoryBudget(100, 0, 100);
+        var overwritten = new BudgetedHistory<Integer>(1, budget, Integer::longValue);
+        var closed = history(budget);
+
+        overwritten.add(10);
+        overwritten.add(20);
+        closed.add(30);
+        closed.close();
+
+        assertEquals(20, budget.getUsedBytes());
+        assertEquals(0, closed.estimatedBytes());
+    }
+
+    @Test
+    void testAppendReturnsElementTrimmedRightAway() {
+        var budget = new HistoryBudget(10, 0, 10);
+        var target = history(budget);
+
+        assertEquals(20, target.append(ign -> 20));
+        assertEquals(0, budget.getUsedBytes());
+        assertEquals(0, target.size());
+    }
+
+    @Test
+    void testBatchesAreOrderedByReportTime() {
+        var budget = new HistoryBudget(30, 0, 30, 2);
+        var first = history(budget);
+        var second = history(budget);
+
+        first.add(10);
+        assertEquals(0, budget.getUsedBytes());
+        second.add(10);
+        second.add(10);
+        first.add(10);
+
+        // the first element of the first history is older, but was reported after the second batch
+        assertEquals(List.of(10, 10), first.toList());
+        assertEquals(List.of(10), second.toList());
+        assertEquals(30, budget.getUsedBytes());
+        assertEquals(1, budget.getTrimmed());
+    }
+
+    @Test
+    void testClosedHistoryDropsUnreportedElements() {
+        var budget = new HistoryBudget(100, 0, 100, 2);
+        var closed = history(budget);
+        var open = history(budget);
+
+        closed.add(10);
+        closed.add(20);
+        closed.add(30);
+        open.add(40);
+        open.add(50);
+        closed.close();
+
+        assertEquals(90, budget.getUsedBytes());
+        assertEquals(0, closed.estimatedBytes());
+        assertEquals(List.of(40, 50), open.toList());
+    }
+
+    @Test
+    void testElementsSkippedAtMinShareLeaveGlobalOrder() {
+        var budget = new HistoryBudget(50, 20, 50);
+        var quiet = history(budget);
+        var busy = history(budget);
+
+        quiet.add(10);
+        quiet.add(10);
+        for (int i = 0; i < 4; i++) {
+            busy.add(10);
+        }
+        assertEquals(List.of(10, 10), quiet.toList());
+
+        // the quiet history is over its min share now, but its skipped elements aren't the globally oldest anymore
+        quiet.add(10);
+
+        assertEquals(List.of(10, 10, 10), quiet.toList());
+        assertEquals(List.of(10, 10), busy.toList());
+        assertEquals(50, budget.getUsedBytes());
+    }
+
+    private static BudgetedHistory<Integer> history(HistoryBudget budget) {
+        return new BudgetedHistory<>(CAPACITY, budget, Integer::longValue);
+    }
+}
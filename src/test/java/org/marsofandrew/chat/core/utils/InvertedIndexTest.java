@@ -0,0 +1,57 @@
+package org.marsofandrew.chat.core.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InvertedIndexTest {
+
+    private final InvertedIndex target = new InvertedIndex();
+
+    @Test
+    void testSearchIsCaseInsensitiveAndReturnsNewest() {
+        target.add(0, "Hello world");
+        target.add(1, "nothing here");
+        target.add(2, "hello, HELLO again");
+        target.add(5, "say hello!");
+
+        assertArrayEquals(new long[]{0, 2, 5}, target.search("hello", 10));
+        assertArrayEquals(new long[]{2, 5}, target.search("HeLLo", 2));
+        assertArrayEquals(new long[0], target.search("absent", 10));
+        assertArrayEquals(new long[0], target.search("two words", 10));
+    }
+
+    @Test
+    void testEvictionRemovesTermsInStep() {
+        for (int i = 0; i < 100; i++) {
+            target.add(i, "common term" + i);
+        }
+        target.evictBefore(95);
+
+        assertEquals(5, target.documentCount());
+        assertEquals(6, target.termCount());
+        assertArrayEquals(new long[]{95, 96, 97, 98, 99}, target.search("common", 10));
+        assertArrayEquals(new long[0], target.search("term3", 10));
+
+        target.evictBefore(100);
+        assertEquals(0, target.termCount());
+    }
+
+    @Test
+    void testLimitsTermsOfDocument() {
+        var limited = new InvertedIndex(2, 3);
+        limited.add(0, "alpha beta gamma");
+
+        assertArrayEquals(new long[]{0}, limited.search("alp", 1));
+        assertArrayEquals(new long[]{0}, limited.search("bet", 1));
+        assertArrayEquals(new long[0], limited.search("gam", 1));
+    }
+
+    @Test
+    void testSequencesShouldGrow() {
+        target.add(3, "a");
+        assertThrows(IllegalArgumentException.class, () -> target.add(3, "b"));
+    }
+}
@@ -0,0 +1,44 @@
+package org.marsofandrew.chat.core.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PasswordHashTest {
+
+    @Test
+    void testMatchesOnlyHashedPassword() {
+        var target = PasswordHash.of("secret");
+
+        assertTrue(target.matches("secret"));
+        assertFalse(target.matches("Secret"));
+        assertFalse(target.matches(""));
+    }
+
+    @Test
+    void testEncodedFormKeepsHashButNotPassword() {
+        var target = PasswordHash.of("secret");
+        String encoded = target.encode();
+
+        assertFalse(encoded.contains("secret"));
+        assertTrue(PasswordHash.isEncoded(encoded));
+        var decoded = PasswordHash.decode(encoded);
+        assertEquals(target, decoded);
+        assertTrue(decoded.matches("secret"));
+    }
+
+    @Test
+    void testSaltIsRandom() {
+        assertNotEquals(PasswordHash.of("secret").encode(), PasswordHash.of("secret").encode());
+    }
+
+    @Test
+    void testPlainPasswordIsNotDecoded() {
+        assertFalse(PasswordHash.isEncoded("secret"));
+        assertThrows(IllegalArgumentException.class, () -> PasswordHash.decode("secret"));
+    }
+}
@@ -0,0 +1,129 @@
+package org.marsofandrew.chat.core.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RingBufferHistoryTest {
+
+    private static final int MAX_SIZE = 2;
+
+    private RingBufferHistory<Integer> target;
+
+    @BeforeEach
+    void before() {
+        target = new RingBufferHistory<>(MAX_SIZE);
+    }
+
+    @Test
+    void testAddNotIncreasesSizeMoreThanMax() {
+        for (int i = 0; i < MAX_SIZE * 2; i++) {
+            target.add(i);
+        }
+
+        assertEquals(MAX_SIZE, target.size());
+    }
+
+    @Test
+    void testAddOverLimitRemovesFirstElement() {
+        var expectedList = IntStream.range(1, MAX_SIZE + 1).boxed().toList();
+        for (int i = 0; i <= MAX_SIZE; i++) {
+            target.add(i);
+        }
+
+        assertEquals(expectedList, target.toList());
+    }
+
+    @Test
+    void testAddReturnsIncreasingSequence() {
+        for (int i = 0; i < MAX_SIZE * 2; i++) {
+            assertEquals(i, target.add(i));
+        }
+
+        assertEquals(MAX_SIZE, target.firstSequence());
+        assertEquals(MAX_SIZE * 2, target.nextSequence());
+    }
+
+    @Test
+    void testGetEvictedSequenceReturnsNull() {
+        for (int i = 0; i <= MAX_SIZE; i++) {
+            target.add(i);
+        }
+
+        assertNull(target.get(0));
+        assertEquals(MAX_SIZE, target.get(MAX_SIZE));
+    }
+
+    @Test
+    void testReadFromEvictedSequenceStartsFromFirstRetained() {
+        for (int i = 0; i < MAX_SIZE * 2; i++) {
+            target.add(i);
+        }
+        List<Integer> result = new ArrayList<>();
+
+        long next = target.read(0, 1, (ign, element) -> result.add(element));
+
+        assertEquals(List.of(MAX_SIZE), result);
+        assertEquals(MAX_SIZE + 1, next);
+    }
+
+    @Test
+    void testConcurrentAddKeepsSequencesDistinct() throws InterruptedException {
+        var history = new RingBufferHistory<Long>(1000);
+        var threads = IntStream.range(0, 4)
+                .mapToObj(ign -> new Thread(() -> {
+                    for (int i = 0; i < 250; i++) {
+                        history.add(0L);
+                    }
+                }))
+                .toList();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1000, history.size());
+        assertEquals(1000, history.nextSequence());
+    }
+
+    @Test
+    void testSkipToContinuesFromGivenSequence() {
+        target.skipTo(10);
+
+        assertEquals(10, target.firstSequence());
+        assertEquals(0, target.size());
+        assertEquals(10, target.add(1));
+        assertEquals(List.of(1), target.toList());
+    }
+
+    @Test
+    void testSkipToEvictsRetainedElements() {
+        List<Integer> evicted = new ArrayList<>();
+        var history = new RingBufferHistory<Integer>(4, element -> 10, evicted::add);
+        history.add(1);
+        history.add(2);
+        history.skipTo(2);
+        assertEquals(List.of(1, 2), history.toList());
+        history.skipTo(10);
+
+        assertEquals(10, history.firstSequence());
+        assertEquals(0, history.size());
+        assertEquals(0, history.estimatedBytes());
+        assertEquals(List.of(1, 2), evicted);
+        assertNull(history.get(0));
+        assertEquals(10, history.add(3));
+        assertEquals(List.of(3), history.toList());
+    }
+
+    @Test
+    void testCapacityShouldBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new RingBufferHistory<Integer>(0));
+    }
+}
@@ -0,0 +1,126 @@
+package org.marsofandrew.chat.core.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SerialExecutorTest {
+
+    private final ExecutorService handoff = Executors.newSingleThreadExecutor();
+    private final SerialExecutor target = new SerialExecutor(SerialExecutor.DEFAULT_MAX_BATCH, handoff);
+
+    @AfterEach
+    void after() {
+        handoff.shutdownNow();
+    }
+
+    @Test
+    void testTaskSubmittedByTaskRunsAfterIt() {
+        List<Integer> result = new ArrayList<>();
+
+        target.execute(() -> {
+            target.execute(() -> result.add(2));
+            result.add(1);
+        });
+
+        assertEquals(List.of(1, 2), result);
+    }
+
+    @Test
+    void testFailedTaskDoesNotStopExecutor() {
+        List<Integer> result = new ArrayList<>();
+
+        target.execute(() -> {
+            target.execute(() -> {
+                throw new IllegalStateException();
+            });
+            target.execute(() -> result.add(1));
+        });
+
+        assertEquals(List.of(1), result);
+    }
+
+    @Test
+    void testErrorDoesNotStopExecutor() {
+        List<Integer> result = new ArrayList<>();
+
+        target.execute(() -> {
+            target.execute(() -> {
+                throw new AssertionError();
+            });
+            target.execute(() -> result.add(1));
+        });
+        target.execute(() -> result.add(2));
+
+        assertEquals(List.of(1, 2), result);
+    }
+
+    @Test
+    void testRestOfLongBatchIsHandedOff() {
+        Queue<Runnable> handedOff = new ArrayDeque<>();
+        var batched = new SerialExecutor(2, handedOff::add);
+        List<Integer> result = new ArrayList<>();
+
+        batched.execute(() -> {
+            for (int i = 1; i <= 4; i++) {
+                int value = i;
+                batched.execute(() -> result.add(value));
+            }
+        });
+        assertEquals(List.of(1), result);
+        assertEquals(1, handedOff.size());
+
+        batched.execute(() -> result.add(5));
+        assertEquals(List.of(1), result);
+
+        handedOff.poll().run();
+        assertEquals(List.of(1, 2, 3), result);
+        handedOff.poll().run();
+        assertEquals(List.of(1, 2, 3, 4, 5), result);
+        assertTrue(handedOff.isEmpty());
+    }
+
+    @Test
+    void testTasksFromManyThreadsNeverRunConcurrently() throws InterruptedException {
+        int threads = 4;
+        int tasksPerThread = 10_000;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        int[] counter = new int[1];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < tasksPerThread; i++) {
+                    target.execute(() -> {
+                        if (running.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        counter[0]++;
+                        running.decrementAndGet();
+                    });
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        // the rest of a long batch may still run on the handoff executor
+        CountDownLatch drained = new CountDownLatch(1);
+        target.execute(drained::countDown);
+        assertTrue(drained.await(10, TimeUnit.SECONDS));
+
+        assertEquals(0, overlaps.get());
+        assertEquals(threads * tasksPerThread, counter[0]);
+    }
+}
@@ -0,0 +1,47 @@
+package org.marsofandrew.chat.core.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000;
+
+    @Test
+    void testBurstThenSteadyRate() {
+        var target = new TokenBucket(new RateLimit(10, 3));
+
+        assertTrue(target.tryAcquire(0));
+        assertTrue(target.tryAcquire(0));
+        assertTrue(target.tryAcquire(0));
+        assertFalse(target.tryAcquire(0));
+
+        assertFalse(target.tryAcquire(SECOND / 10 - 1));
+        assertTrue(target.tryAcquire(SECOND / 10));
+        assertFalse(target.tryAcquire(SECOND / 10));
+    }
+
+    @Test
+    void testIdleTimeRefillsOnlyUpToBurst() {
+        var target = new TokenBucket(new RateLimit(10, 2));
+        target.tryAcquire(0);
+
+        long later = 10 * SECOND;
+        assertTrue(target.tryAcquire(later));
+        assertTrue(target.tryAcquire(later));
+        assertFalse(target.tryAcquire(later));
+    }
+
+    @Test
+    void testParse() {
+        assertEquals(new RateLimit(5, 10), RateLimit.parse("5:10"));
+        assertEquals(new RateLimit(0.5, 1), RateLimit.parse("0.5"));
+        assertNull(RateLimit.parse("0").newBucket());
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("fast"));
+    }
+}
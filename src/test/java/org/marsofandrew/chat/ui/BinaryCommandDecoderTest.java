@@ -0,0 +1,173 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.jupiter.api.Test;
+import org.marsofandrew.chat.core.TopicService;
+import org.marsofandrew.chat.core.model.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BinaryCommandDecoderTest {
+
+    private static final int MAX_FRAME = 64;
+
+    private final EmbeddedChannel channel = new EmbeddedChannel(
+            BinaryProtocol.frameDecoder(MAX_FRAME), new BinaryCommandDecoder());
+
+    @Test
+    void testDecodesCommandsAndMessages() {
+        channel.writeInbound(frame(BinaryProtocol.LOGIN, "bob", "secret"));
+        var resume = start(BinaryProtocol.RESUME);
+        BinaryProtocol.writeString(resume, "topic");
+        resume.writeLong(42);
+        channel.writeInbound(BinaryProtocol.finish(resume));
+        channel.writeInbound(frame(BinaryProtocol.STATS));
+        var publish = start(BinaryProtocol.PUBLISH);
+        publish.writeCharSequence("hello /join", StandardCharsets.UTF_8);
+        channel.writeInbound(BinaryProtocol.finish(publish));
+        channel.writeInbound(frame((byte) 99));
+
+        assertCommand(Command.Type.LOGIN, new String[]{"bob", "secret"}, channel.readInbound());
+        assertCommand(Command.Type.RESUME, new String[]{"topic", "42"}, channel.readInbound());
+        assertCommand(Command.Type.STATS, new String[0], channel.readInbound());
+        assertEquals("hello /join", channel.readInbound());
+        assertCommand(Command.Type.UNKNOWN, new String[0], channel.readInbound());
+    }
+
+    @Test
+    void testFrameSplitAcrossReads() {
+        ByteBuf frame = frame(BinaryProtocol.JOIN, "room");
+        channel.writeInbound(frame.readRetainedSlice(2));
+        channel.writeInbound(frame.readRetainedSlice(5));
+        assertNull(channel.readInbound());
+
+        channel.writeInbound(Unpooled.wrappedBuffer(frame, frame(BinaryProtocol.LEAVE)));
+        assertCommand(Command.Type.JOIN, new String[]{"room"}, channel.readInbound());
+        assertCommand(Command.Type.LEAVE, new String[0], channel.readInbound());
+    }
+
+    @Test
+    void testOversizeFrameIsRejected() {
+        var oversize = start(BinaryProtocol.PUBLISH);
+        oversize.writeZero(MAX_FRAME);
+        assertThrows(TooLongFrameException.class, () -> channel.writeInbound(BinaryProtocol.finish(oversize)));
+
+        channel.writeInbound(frame(BinaryProtocol.JOIN, "after"));
+        assertCommand(Command.Type.JOIN, new String[]{"after"}, channel.readInbound());
+    }
+
+    @Test
+    void testTruncatedFrameIsCorrupted() {
+        assertThrows(CorruptedFrameException.class, () -> channel.writeInbound(frame(BinaryProtocol.LOGIN, "bob")));
+    }
+
+    @Test
+    void testTooLongStringIsRejectedBeforeWriting() {
+        ByteBuf frame = start(BinaryProtocol.JOIN);
+        int written = frame.writerIndex();
+
+        assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.writeString(frame, "x".repeat(0x10000)));
+        assertEquals(written, frame.writerIndex());
+        frame.release();
+    }
+
+    @Test
+    void testEncoderReleasesFrameOfTooLongSender() {
+        List<ByteBuf> allocated = new ArrayList<>();
+        var allocator = new AbstractByteBufAllocator() {
+            @Override
+            protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+                return Unpooled.buffer(initialCapacity, maxCapacity);
+            }
+
+            @Override
+            protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+                ByteBuf buffer = Unpooled.directBuffer(initialCapacity, maxCapacity);
+                allocated.add(buffer);
+                return buffer;
+            }
+
+            @Override
+            public boolean isDirectBufferPooled() {
+                return false;
+            }
+        };
+        var message = new Message<>(0, Instant.now(), "hello", "x".repeat(0x10000));
+
+        assertThrows(IllegalArgumentException.class, () -> new BinaryMessageEncoder(allocator).encode("t", message));
+        assertEquals(1, allocated.size());
+        assertEquals(0, allocated.get(0).refCnt());
+    }
+
+    @Test
+    void testRoundTripThroughHandler() {
+        var server = new EmbeddedChannel(BinaryProtocol.frameDecoder(MAX_FRAME), new BinaryCommandDecoder(),
+                new BinaryReplyEncoder(),
+                new TelnetServerHandler(new TopicService<>(10, 10, 10), BinaryMessageEncoder.INSTANCE,
+                        Runnable::run));
+
+        server.writeInbound(frame(BinaryProtocol.LOGIN, "binary-trip", "pw"));
+        server.writeInbound(frame(BinaryProtocol.JOIN, "binary-trip"));
+        var publish = start(BinaryProtocol.PUBLISH);
+        publish.writeCharSequence("hello", StandardCharsets.UTF_8);
+        server.writeInbound(BinaryProtocol.finish(publish));
+        server.runPendingTasks();
+
+        ByteBuf delivered = readFrame(server);
+        assertEquals(BinaryProtocol.DELIVER, delivered.readByte());
+        assertEquals("binary-trip", BinaryProtocol.readString(delivered));
+        assertEquals(0, delivered.readLong());
+        delivered.readLong();
+        assertEquals("binary-trip", BinaryProtocol.readString(delivered));
+        assertEquals("hello", delivered.toString(StandardCharsets.UTF_8));
+        delivered.release();
+
+        server.writeInbound(frame((byte) 99));
+        ByteBuf reply = readFrame(server);
+        assertEquals(BinaryProtocol.REPLY, reply.readByte());
+        assertEquals("UNKNOWN OPERATION", reply.toString(StandardCharsets.UTF_8));
+        reply.release();
+        server.finishAndReleaseAll();
+    }
+
+    /**
+     * @return body of the next outbound frame after its length.
+     */
+    private static ByteBuf readFrame(EmbeddedChannel channel) {
+        ByteBuf frame = channel.readOutbound();
+        assertEquals(frame.readableBytes() - Integer.BYTES, frame.readInt());
+        return frame;
+    }
+
+    private static ByteBuf frame(byte type, String... strings) {
+        ByteBuf frame = start(type);
+        for (String value : strings) {
+            BinaryProtocol.writeString(frame, value);
+        }
+        return BinaryProtocol.finish(frame);
+    }
+
+    private static ByteBuf start(byte type) {
+        return BinaryProtocol.start(UnpooledByteBufAllocator.DEFAULT, type, 128);
+    }
+
+    private static void assertCommand(Command.Type type, String[] args, Object actual) {
+        Command command = (Command) actual;
+        assertEquals(type, command.type());
+        assertArrayEquals(args, command.args());
+    }
+}
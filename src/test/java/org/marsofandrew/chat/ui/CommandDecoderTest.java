@@ -0,0 +1,117 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.Delimiters;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.string.StringEncoder;
+import org.junit.jupiter.api.Test;
+import org.marsofandrew.chat.core.ChatLineEncoder;
+import org.marsofandrew.chat.core.TopicService;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandDecoderTest {
+
+    private static final int MAX_LINE = 64;
+
+    private final EmbeddedChannel channel = new EmbeddedChannel(
+            new DelimiterBasedFrameDecoder(MAX_LINE, Delimiters.lineDelimiter()), new CommandDecoder());
+
+    @Test
+    void testSplitsCommandAndArguments() {
+        write("/login  bob   secret \n/leave\n/resume topic 42\n");
+
+        assertCommand(Command.Type.LOGIN, new String[]{"bob", "secret"}, channel.readInbound());
+        assertCommand(Command.Type.LEAVE, new String[0], channel.readInbound());
+        assertCommand(Command.Type.RESUME, new String[]{"topic", "42"}, channel.readInbound());
+    }
+
+    @Test
+    void testUnknownCommandHasNoArguments() {
+        write("/loginx bob secret\n/ bob\n");
+
+        assertCommand(Command.Type.UNKNOWN, new String[0], channel.readInbound());
+        assertCommand(Command.Type.UNKNOWN, new String[0], channel.readInbound());
+    }
+
+    @Test
+    void testChatLinesAndEscapedSlash() {
+        write("hello /join\r\n\\/join room\n\n");
+
+        assertEquals("hello /join", channel.readInbound());
+        assertEquals("/join room", channel.readInbound());
+        assertEquals("", channel.readInbound());
+    }
+
+    @Test
+    void testLineSplitAcrossReads() {
+        write("/jo");
+        write("in ro");
+        assertNull(channel.readInbound());
+
+        write("om\r\nhi");
+        assertCommand(Command.Type.JOIN, new String[]{"room"}, channel.readInbound());
+        assertNull(channel.readInbound());
+
+        write("\n");
+        assertEquals("hi", channel.readInbound());
+    }
+
+    @Test
+    void testOversizeLineIsRejected() {
+        assertThrows(TooLongFrameException.class, () -> write("x".repeat(MAX_LINE + 1) + "\n"));
+
+        write("after\n");
+        assertEquals("after", channel.readInbound());
+    }
+
+    @Test
+    void testRoundTripThroughHandler() {
+        var server = new EmbeddedChannel(new DelimiterBasedFrameDecoder(MAX_LINE, Delimiters.lineDelimiter()),
+                new CommandDecoder(), new StringEncoder(), new TelnetServerHandler(new TopicService<>(10, 10, 10),
+                        ChatLineEncoder.INSTANCE, Runnable::run));
+
+        server.writeInbound(buffer("/login telnet-trip pw\n/join telnet-trip\nhello\n"));
+        server.runPendingTasks();
+
+        String output = readOutbound(server);
+        assertTrue(output.matches("FROM telnet-trip at [0-9: -]+: hello\n"), output);
+
+        server.writeInbound(buffer("/bogus\n"));
+        assertEquals("UNKNOWN OPERATION\n", readOutbound(server));
+        server.finishAndReleaseAll();
+    }
+
+    static String readOutbound(EmbeddedChannel channel) {
+        var result = new StringBuilder();
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            result.append(buf.toString(StandardCharsets.UTF_8));
+            buf.release();
+        }
+        return result.toString();
+    }
+
+    private void write(String data) {
+        channel.writeInbound(buffer(data));
+    }
+
+    private static ByteBuf buffer(String data) {
+        return Unpooled.copiedBuffer(data, StandardCharsets.UTF_8);
+    }
+
+    private static void assertCommand(Command.Type type, String[] args, Object actual) {
+        Command command = (Command) actual;
+        assertEquals(type, command.type());
+        assertArrayEquals(args, command.args());
+    }
+}
@@ -0,0 +1,82 @@
+package org.marsofandrew.chat.ui;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.marsofandrew.chat.core.utils.RateLimit;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ServerConfigParserTest {
+
+    @Test
+    void testLegacyPositionalArguments() throws Exception {
+        ServerConfig config = ServerConfigParser.parse(new String[]{"8080", "100"}, new Properties());
+
+        assertEquals(8080, config.getPort());
+        assertEquals(100, config.getMessageLimit());
+        assertEquals(Transport.AUTO, config.getTransport());
+        assertEquals(ServerConfig.DEFAULT_SO_BACKLOG, config.getSoBacklog());
+        assertTrue(config.isTcpNoDelay());
+        assertTrue(config.isPooledAllocator());
+        assertNull(config.getLog());
+        assertNull(config.getSnapshotDirectory());
+        assertFalse(config.isSequencePrefix());
+    }
+
+    @Test
+    void testOptionsOverrideFileAndSystemProperties(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("server.properties");
+        Files.writeString(file, "port=9000\nmessageLimit=5\nworkerThreads=4\nsoBacklog=64\n");
+        Properties system = new Properties();
+        system.setProperty("chat.workerThreads", "2");
+        system.setProperty("chat.mailboxCapacity", "16");
+
+        ServerConfig config = ServerConfigParser.parse(new String[]{"--config=" + file, "--soBacklog=128",
+                "--transport=nio", "--reusePort=true", "--acceptors=3", "--tcpNoDelay=false",
+                "--clientRateLimit=5:10", "--topicRateLimit.news=1", "--snapshotDirectory=" + directory,
+                "--snapshotIntervalMillis=0", "--binaryPort=9001",
+                "--webSocketPort=9002", "--searchIndex=true"}, system);
+
+        assertEquals(9000, config.getPort());
+        assertEquals(5, config.getMessageLimit());
+        assertEquals(4, config.getWorkerThreads());
+        assertEquals(128, config.getSoBacklog());
+        assertEquals(16, config.getMailboxCapacity());
+        assertEquals(Transport.NIO, config.getTransport());
+        assertTrue(config.isReusePort());
+        assertEquals(3, config.getAcceptors());
+        assertFalse(config.isTcpNoDelay());
+        assertEquals(new RateLimit(5, 10), config.getClientRateLimit());
+        assertTrue(config.getTopicRateLimit().isUnlimited());
+        assertEquals(Map.of("news", new RateLimit(1, 1)), config.getTopicRateLimits());
+        assertEquals(directory, config.getSnapshotDirectory());
+        assertEquals(0, config.getSnapshotIntervalMillis());
+        assertEquals(9001, config.getBinaryPort());
+        assertEquals(9002, config.getWebSocketPort());
+        assertTrue(config.isSearchIndex());
+        assertEquals(ServerConfig.DEFAULT_WEB_SOCKET_PATH, config.getWebSocketPath());
+    }
+
+    @Test
+    void testMalformedArguments() {
+        Properties system = new Properties();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerConfigParser.parse(new String[]{"8080"}, system));
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerConfigParser.parse(new String[]{"--messageLimit=10"}, system));
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerConfigParser.parse(new String[]{"--port=x", "--messageLimit=10"}, system));
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerConfigParser.parse(new String[]{"8080", "10", "--workerThreads"}, system));
+    }
+}
@@ -0,0 +1,99 @@
+package org.marsofandrew.chat.ui;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import org.junit.jupiter.api.Test;
+import org.marsofandrew.chat.core.TopicService;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WebSocketLineDecoderTest {
+
+    private static final int MAX_FRAME = 64;
+
+    private final EmbeddedChannel channel = new EmbeddedChannel(
+            new WebSocketFrameAggregator(MAX_FRAME), new WebSocketLineDecoder(), new CommandDecoder());
+
+    @Test
+    void testSplitsFrameIntoLines() {
+        channel.writeInbound(new TextWebSocketFrame("/login bob secret\r\nhello\n\n/leave"));
+
+        assertCommand(Command.Type.LOGIN, new String[]{"bob", "secret"}, channel.readInbound());
+        assertEquals("hello", channel.readInbound());
+        assertCommand(Command.Type.LEAVE, new String[0], channel.readInbound());
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    void testBinaryFramesAreLinesAndControlFramesPassThrough() {
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.copiedBuffer("/join room", StandardCharsets.UTF_8)));
+        channel.writeInbound(new PingWebSocketFrame());
+
+        assertCommand(Command.Type.JOIN, new String[]{"room"}, channel.readInbound());
+        PingWebSocketFrame ping = assertInstanceOf(PingWebSocketFrame.class, channel.readInbound());
+        ping.release();
+    }
+
+    @Test
+    void testFragmentedMessageIsJoined() {
+        channel.writeInbound(new TextWebSocketFrame(false, 0, "/jo"));
+        channel.writeInbound(new ContinuationWebSocketFrame(false, 0, "in ro"));
+        assertNull(channel.readInbound());
+
+        channel.writeInbound(new ContinuationWebSocketFrame(true, 0, "om\nhi"));
+        assertCommand(Command.Type.JOIN, new String[]{"room"}, channel.readInbound());
+        assertEquals("hi", channel.readInbound());
+    }
+
+    @Test
+    void testOversizeMessageIsRejected() {
+        channel.writeInbound(new TextWebSocketFrame(false, 0, "x".repeat(MAX_FRAME)));
+
+        assertThrows(TooLongFrameException.class,
+                () -> channel.writeInbound(new ContinuationWebSocketFrame(true, 0, "x")));
+    }
+
+    @Test
+    void testRoundTripThroughHandler() {
+        var server = new EmbeddedChannel(new WebSocketLineDecoder(), new CommandDecoder(),
+                new WebSocketReplyEncoder(),
+                new TelnetServerHandler(new TopicService<>(10, 10, 10), WebSocketMessageEncoder.INSTANCE,
+                        Runnable::run));
+
+        server.writeInbound(new TextWebSocketFrame("/login ws-trip pw\n/join ws-trip\nhello"));
+        server.runPendingTasks();
+
+        ByteBuf delivered = server.readOutbound();
+        assertEquals(0x81, delivered.readUnsignedByte());
+        assertEquals(delivered.readableBytes() - 1, delivered.readUnsignedByte());
+        String line = delivered.toString(StandardCharsets.UTF_8);
+        assertTrue(line.matches("FROM ws-trip at [0-9: -]+: hello"), line);
+        delivered.release();
+
+        server.writeInbound(new TextWebSocketFrame("/bogus"));
+        TextWebSocketFrame reply = server.readOutbound();
+        assertEquals("UNKNOWN OPERATION", reply.text());
+        reply.release();
+        server.finishAndReleaseAll();
+    }
+
+    private static void assertCommand(Command.Type type, String[] args, Object actual) {
+        Command command = (Command) actual;
+        assertEquals(type, command.type());
+        assertArrayEquals(args, command.args());
+    }
+}